@@ -0,0 +1,34 @@
+/**
+ * Read-only view of the Buckets of a histogram, which can be queried without creating "Bucket" objects or a 2 dimensional array.
+ * The Buckets are numbered from the oldest (index 0) to the newest one.
+ * The size of a Bucket is always a power of two, so it is represented by its exponent.
+ *
+ * @author Sven Winkler
+ */
+public interface BucketView {
+
+	/**
+	 * @return		Number of Buckets in the histogram.
+	 */
+	int numberOfBuckets ();
+
+	/**
+	 * @param i		Index of the Bucket, 0 for the oldest one.
+	 * @return		Arrival number of the newest one in the Bucket.
+	 */
+	long timestamp (int i);
+
+	/**
+	 * @param i		Index of the Bucket, 0 for the oldest one.
+	 * @return		Exponent of the bucket size (0 for size 1, 1 for size 2, 2 for size 4, ...).
+	 */
+	int sizeExponent (int i);
+
+	/**
+	 * @param i		Index of the Bucket, 0 for the oldest one.
+	 * @return		Number of ones in the Bucket.
+	 */
+	default long bucketSize (int i) {
+		return 1L << sizeExponent(i);
+	}
+}
@@ -0,0 +1,96 @@
+/**
+ * Pre-generated stream: the elements of another source are generated once into a packed buffer, which is then delivered
+ * again and again. Delivering a batch is a copy of memory, so the histogram and not the generator is measured.
+ * The stream can be started again from the beginning, to feed exactly the same elements into another implementation.
+ *
+ * @author Sven Winkler
+ */
+public class BufferedElementSource implements ElementSource {
+
+	private final long [] buffer;
+	private final long length;
+	private final boolean repeat;
+
+	/** Position of the next element in the buffer, a multiple of 64 except at the end. */
+	private long position;
+
+	/**
+	 * @param source	Source of the elements, which is read until the buffer is full or the source ends.
+	 * @param length	Number of elements of the buffer.
+	 * @param repeat	True, if the buffer is delivered endlessly, false for a stream that ends after the buffer.
+	 */
+	public BufferedElementSource (ElementSource source, long length, boolean repeat) {
+		if (length < 1 || length > 64L * (Integer.MAX_VALUE - 8)) {
+			throw new IllegalArgumentException("Invalid buffer length: " + length);
+		}
+		long [] bits = new long [(int) ((length + 63) >>> 6)];
+		long [] batch = new long [1024];
+		long filled = 0;
+		while (filled < length) {
+			int n = source.fill(batch);
+			if (n < 0) {
+				break;
+			}
+			n = (int) Math.min(n, length - filled);
+			append(bits, filled, batch, n);
+			filled += n;
+		}
+		if (filled == 0) {
+			throw new IllegalArgumentException("The source is empty");
+		}
+		this.buffer = bits;
+		this.length = filled;
+		this.repeat = repeat;
+	}
+
+	@Override
+	public int fill (long [] words) {
+		if (position == length) {
+			if (!repeat) {
+				return -1;
+			}
+			position = 0;
+		}
+		//Every batch ends at the end of the buffer, so a batch is always a plain copy of whole words
+		int elements = (int) Math.min(64L * words.length, length - position);
+		int start = (int) (position >>> 6);
+		int numberOfWords = (elements + 63) >>> 6;
+		System.arraycopy(buffer, start, words, 0, numberOfWords);
+		position += elements;
+		return elements;
+	}
+
+	/**
+	 * Starts the stream again at its first element.
+	 */
+	public void reset () {
+		position = 0;
+	}
+
+	/**
+	 * @return		Number of elements in the buffer.
+	 */
+	public long length () {
+		return length;
+	}
+
+	/**
+	 * Appends packed elements at any bit position of a packed array.
+	 */
+	static void append (long [] target, long targetPosition, long [] source, int numberOfBits) {
+		int shift = (int) (targetPosition & 63);
+		int index = (int) (targetPosition >>> 6);
+		for (int i = 0; 64 * i < numberOfBits; i++) {
+			int bits = Math.min(64, numberOfBits - 64 * i);
+			long word = bits == 64 ? source[i] : source[i] & ((1L << bits) - 1);
+			target[index] |= word << shift;
+			if (shift != 0 && shift + bits > 64) {
+				target[index + 1] |= word >>> (64 - shift);
+			}
+			if (shift + bits >= 64) {
+				index++;
+			}
+			shift = (shift + bits) & 63;
+		}
+	}
+}
@@ -0,0 +1,106 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Benchmark of queries across all keys of a store: one estimate per key through "KeyedHistogramStore.estimate"
+ * against the columns of the class "HistogramColumns" (loading them, bulk estimates, threshold and top-k).
+ * One operation is one query over all keys. The Vector API kernels are used if they are available (see the README).
+ *
+ * Usage: java [--add-modules jdk.incubator.vector] ColumnsBenchmark [output file] [measurement time in ms]
+ *
+ * @author Sven Winkler
+ */
+public class ColumnsBenchmark {
+
+	static final int [] NUMBERS_OF_KEYS = {10_000, 100_000};
+	static final int WINDOW_SIZE = 1000;
+	static final int ERR_PARAM = 10;
+	static final int TOP_K = 100;
+
+	public static void main (String[] args) throws IOException {
+		Path output = Paths.get(args.length > 0 ? args[0] : "columns-benchmark-results.csv");
+		if (args.length > 1) {
+			HistogramBenchmark.measurementNanos = Long.parseLong(args[1]) * 1_000_000L;
+		}
+		System.out.println("# vectorized: " + HistogramColumns.isVectorized());
+
+		List <HistogramBenchmark.Result> results = new ArrayList <HistogramBenchmark.Result> ();
+		for (int numberOfKeys : NUMBERS_OF_KEYS) {
+			KeyedHistogramStore store = filledStore(numberOfKeys);
+			long [] keys = new long [store.size()];
+			HistogramColumns columns = new HistogramColumns(store.size());
+			columns.load(store);
+			for (int i = 0; i < columns.size(); i++) {
+				keys[i] = columns.keyAt(i);
+			}
+			long [] estimates = new long [columns.size()];
+			int [] indices = new int [columns.size()];
+			long threshold = WINDOW_SIZE / 2;
+			String suffix = "[keys=" + numberOfKeys + "]";
+
+			results.add(HistogramBenchmark.measure("KeyedHistogramStore.estimate" + suffix, WINDOW_SIZE, ERR_PARAM, iterations -> {
+				long sum = 0;
+				for (long n = 0; n < iterations; n++) {
+					for (long key : keys) {
+						sum += store.estimate(key);
+					}
+				}
+				return sum;
+			}));
+			results.add(HistogramBenchmark.measure("HistogramColumns.load" + suffix, WINDOW_SIZE, ERR_PARAM, iterations -> {
+				for (long n = 0; n < iterations; n++) {
+					columns.load(store);
+				}
+				return columns.size();
+			}));
+			results.add(HistogramBenchmark.measure("HistogramColumns.estimates" + suffix, WINDOW_SIZE, ERR_PARAM, iterations -> {
+				for (long n = 0; n < iterations; n++) {
+					columns.estimates(estimates);
+				}
+				return estimates[0];
+			}));
+			results.add(HistogramBenchmark.measure("HistogramColumns.selectAbove" + suffix, WINDOW_SIZE, ERR_PARAM, iterations -> {
+				long found = 0;
+				for (long n = 0; n < iterations; n++) {
+					found += columns.selectAbove(threshold, indices);
+				}
+				return found;
+			}));
+			results.add(HistogramBenchmark.measure("HistogramColumns.topK" + suffix, WINDOW_SIZE, ERR_PARAM, iterations -> {
+				long first = 0;
+				for (long n = 0; n < iterations; n++) {
+					first += columns.topK(TOP_K)[0];
+				}
+				return first;
+			}));
+		}
+
+		HistogramBenchmark.write(output, results);
+	}
+
+	/**
+	 * @return		Store after two windows of batches, in which every key has its own density of ones.
+	 */
+	static KeyedHistogramStore filledStore (int numberOfKeys) {
+		KeyedHistogramStore store = new KeyedHistogramStore(WINDOW_SIZE, ERR_PARAM);
+		SplittableRandom random = new SplittableRandom(42);
+		double [] densities = new double [numberOfKeys];
+		for (int k = 0; k < numberOfKeys; k++) {
+			densities[k] = random.nextDouble();
+		}
+		long [] keys = new long [numberOfKeys];
+		int [] bits = new int [numberOfKeys];
+		for (int batch = 0; batch < 2 * WINDOW_SIZE; batch++) {
+			for (int k = 0; k < numberOfKeys; k++) {
+				keys[k] = k;
+				bits[k] = random.nextDouble() < densities[k] ? 1 : 0;
+			}
+			store.update(keys, bits, numberOfKeys);
+		}
+		return store;
+	}
+}
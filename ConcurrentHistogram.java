@@ -0,0 +1,126 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Histogram of one stream that many threads can update at the same time.
+ *
+ * All threads share one clock, which gives every element its arrival number. The ones are counted in striped histograms:
+ * every thread writes into the stripe that belongs to it, and the estimate is the sum of the estimates of all stripes.
+ * As every stripe keeps the relative error of the algorithm for its own ones, the sum keeps the same relative error.
+ * A zero only moves the clock, so it does not touch any stripe.
+ *
+ * Readers never take a lock: they read a stripe optimistically and repeat the read if a writer changed the stripe meanwhile,
+ * so a reader can never block a writer.
+ *
+ * @author Sven Winkler
+ */
+public class ConcurrentHistogram {
+
+	private final AtomicLong clock = new AtomicLong();
+	private final Stripe [] stripes;
+
+	/**
+	 * One histogram together with the lock of its writers.
+	 */
+	private static final class Stripe {
+		final StampedLock lock = new StampedLock();
+		final ExponentialHistogram histogram;
+
+		Stripe (int windowSize, int errParam) {
+			histogram = new ExponentialHistogram(windowSize, errParam);
+		}
+	}
+
+	/**
+	 * Creates a histogram with one stripe per available processor.
+	 * @param windowSize	Size of the Sliding Window.
+	 * @param errParam	The error parameter of every stripe.
+	 */
+	public ConcurrentHistogram (int windowSize, int errParam) {
+		this(windowSize, errParam, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param windowSize	Size of the Sliding Window.
+	 * @param errParam	The error parameter of every stripe.
+	 * @param concurrency	Expected number of writing threads, rounded up to a power of two.
+	 */
+	public ConcurrentHistogram (int windowSize, int errParam, int concurrency) {
+		ExponentialHistogram.checkParameters(windowSize, errParam);
+		int numberOfStripes = Integer.highestOneBit(Math.max(concurrency, 1) * 2 - 1);
+		stripes = new Stripe [numberOfStripes];
+		for (int i = 0; i < numberOfStripes; i++) {
+			stripes[i] = new Stripe(windowSize, errParam);
+		}
+	}
+
+	/**
+	 * Processes a new element.
+	 * @param newElement	0 or 1 that is processed by the algorithm
+	 * @return		The arrival number of the element.
+	 */
+	public long update (int newElement) {
+		if (newElement != 1) {
+			return clock.incrementAndGet();
+		}
+
+		Stripe stripe = stripes[(int) mix(Thread.currentThread().getId()) & (stripes.length - 1)];
+		long stamp = stripe.lock.writeLock();
+		try {
+			//The arrival number is taken under the lock, so the clock of a stripe never moves backwards
+			long time = clock.incrementAndGet();
+			stripe.histogram.advanceTo(time);
+			stripe.histogram.add();
+			return time;
+		} finally {
+			stripe.lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Returns the number of ones in the Sliding Window according to the algorithm, without blocking any writer.
+	 * @return		Sum of the estimates of all stripes at the current clock value.
+	 */
+	public long estimatedNumberOfOnes () {
+		long time = clock.get();
+		long sum = 0;
+		for (Stripe stripe : stripes) {
+			sum += estimate(stripe, time);
+		}
+		return sum;
+	}
+
+	/**
+	 * @return		Number of elements that have arrived so far.
+	 */
+	public long getClock () {
+		return clock.get();
+	}
+
+	/*----------------------------------------------------------------------------------*/
+
+	private static long estimate (Stripe stripe, long time) {
+		while (true) {
+			long stamp = stripe.lock.tryOptimisticRead();
+			if (stamp != 0) {
+				try {
+					long estimate = stripe.histogram.estimatedNumberOfOnes(Math.max(time, stripe.histogram.getClock()));
+					if (stripe.lock.validate(stamp)) {
+						return estimate;
+					}
+				} catch (RuntimeException e) {
+					//An inconsistent read during a write is repeated; with a valid stamp the exception is a real error
+					if (stripe.lock.validate(stamp)) {
+						throw e;
+					}
+				}
+			}
+			Thread.onSpinWait();
+		}
+	}
+
+	private static long mix (long id) {
+		long h = id * 0x9E3779B97F4A7C15L;
+		return h ^ (h >>> 32);
+	}
+}
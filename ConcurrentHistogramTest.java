@@ -0,0 +1,167 @@
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Stress test of the class "ConcurrentHistogram": several writer threads update one histogram while reader threads
+ * query the estimate without a lock, and every estimate has to stay within the relative error bound of the error parameter.
+ *
+ * The writers remember the arrival numbers of their ones. A reader takes the clock before (t0) and after (t1) every query;
+ * the estimate was computed at some clock value in between, so it has to lie between the ones that are in the window at every
+ * such value, (t1 - windowSize, t0], reduced by the bound, and the ones that are in the window at any of them,
+ * (t0 - windowSize, t1], enlarged by the bound. The final estimate after all writers finished is checked against the exact count.
+ *
+ * Usage: java ConcurrentHistogramTest [writers] [readers] [elements per writer]
+ * The program exits with the status 1, if an estimate is outside of the bound.
+ *
+ * @author Sven Winkler
+ */
+public class ConcurrentHistogramTest {
+
+	static final int WINDOW_SIZE = 10_000;
+	static final int [] ERR_PARAMS = {4, 10, 50};
+
+	/** Number of queries that a reader keeps for the check; it continues querying without keeping them. */
+	static final int MAX_SAMPLES = 200_000;
+
+	/**
+	 * One query of a reader.
+	 */
+	static final class Sample {
+		final long before;
+		final long after;
+		final long estimate;
+
+		Sample (long before, long after, long estimate) {
+			this.before = before;
+			this.after = after;
+			this.estimate = estimate;
+		}
+	}
+
+	public static void main (String[] args) throws InterruptedException {
+		int writers = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		int readers = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+		int elements = args.length > 2 ? Integer.parseInt(args[2]) : 500_000;
+
+		int failures = 0;
+		for (int errParam : ERR_PARAMS) {
+			failures += run(writers, readers, elements, errParam);
+		}
+		if (failures > 0) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * @return		Number of estimates outside of the bound.
+	 */
+	static int run (int writers, int readers, int elements, int errParam) throws InterruptedException {
+		ConcurrentHistogram histogram = new ConcurrentHistogram(WINDOW_SIZE, errParam, writers);
+		double bound = HistogramConfig.relativeErrorBound(errParam);
+		long totalElements = (long) writers * elements;
+		BitSet ones = new BitSet((int) totalElements + 1);
+		List <Sample> samples = new ArrayList <Sample> ();
+		AtomicBoolean writing = new AtomicBoolean(true);
+		CountDownLatch start = new CountDownLatch(1);
+
+		List <Thread> threads = new ArrayList <Thread> ();
+		List <long []> arrivals = new ArrayList <long []> ();
+		for (int w = 0; w < writers; w++) {
+			long [] own = new long [elements];
+			arrivals.add(own);
+			SplittableRandom random = new SplittableRandom(w);
+			threads.add(new Thread(() -> {
+				await(start);
+				for (int i = 0; i < elements; i++) {
+					int newElement = random.nextInt(4) == 0 ? 0 : 1;
+					long time = histogram.update(newElement);
+					own[i] = newElement == 1 ? time : 0;
+				}
+			}));
+		}
+		List <List <Sample>> readerSamples = new ArrayList <List <Sample>> ();
+		for (int r = 0; r < readers; r++) {
+			List <Sample> own = new ArrayList <Sample> ();
+			readerSamples.add(own);
+			threads.add(new Thread(() -> {
+				await(start);
+				while (writing.get()) {
+					long before = histogram.getClock();
+					long estimate = histogram.estimatedNumberOfOnes();
+					long after = histogram.getClock();
+					if (own.size() < MAX_SAMPLES) {
+						own.add(new Sample(before, after, estimate));
+					}
+				}
+			}));
+		}
+
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		start.countDown();
+		for (int w = 0; w < writers; w++) {
+			threads.get(w).join();
+		}
+		writing.set(false);
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		for (List <Sample> own : readerSamples) {
+			samples.addAll(own);
+		}
+		for (long [] own : arrivals) {
+			for (long time : own) {
+				if (time > 0) {
+					ones.set((int) time);
+				}
+			}
+		}
+
+		//Number of ones up to every arrival number, for the counts of the windows
+		int [] prefix = new int [(int) totalElements + 1];
+		for (int t = 1; t <= totalElements; t++) {
+			prefix[t] = prefix[t - 1] + (ones.get(t) ? 1 : 0);
+		}
+
+		int failures = 0;
+		for (Sample sample : samples) {
+			long inAll = count(prefix, sample.after - WINDOW_SIZE, sample.before);
+			long inAny = count(prefix, sample.before - WINDOW_SIZE, sample.after);
+			if (sample.estimate < (1 - bound) * inAll || sample.estimate > (1 + bound) * inAny) {
+				if (failures++ < 10) {
+					System.out.println("FAILED errParam=" + errParam + " clock " + sample.before + ".." + sample.after
+							+ ": estimate " + sample.estimate + ", exact between " + inAll + " and " + inAny);
+				}
+			}
+		}
+		long exact = count(prefix, totalElements - WINDOW_SIZE, totalElements);
+		long estimate = histogram.estimatedNumberOfOnes();
+		if (histogram.getClock() != totalElements || Math.abs(estimate - exact) > bound * exact) {
+			System.out.println("FAILED errParam=" + errParam + ": final estimate " + estimate + ", exact " + exact);
+			failures++;
+		}
+		System.out.printf("errParam=%d bound=%.4f writers=%d readers=%d samples=%d final estimate=%d exact=%d failures=%d%n",
+				errParam, bound, writers, readers, samples.size(), estimate, exact, failures);
+		return failures;
+	}
+
+	/**
+	 * @return		Number of ones with an arrival number in (from, to].
+	 */
+	static long count (int [] prefix, long from, long to) {
+		return prefix[(int) to] - prefix[(int) Math.max(from, 0)];
+	}
+
+	static void await (CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
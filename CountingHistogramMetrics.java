@@ -0,0 +1,254 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counts the events of one histogram and exposes them, together with gauges of the histogram, as an MXBean.
+ * Only the updating thread writes the counters; it publishes them with release stores, so counting costs a few additions
+ * and plain stores per event, and a JMX client reads them without a lock and can see values that are slightly behind.
+ * The gauges of the histogram (Buckets and memory) are not read from the histogram by the JMX thread, but from a copy
+ * that the updating thread publishes every SNAPSHOT_INTERVAL events and after every change of the active error parameter.
+ *
+ * Optionally an exact shadow window ("ExactWindowCounter") follows the stream, and every sampleInterval elements
+ * the estimate is compared with the exact number of ones. The error gauges show how close the error parameter is to the
+ * error on the real stream. The shadow window assumes a stream of single elements (at most one one per step).
+ *
+ * Usage: new CountingHistogramMetrics(histogram).register("clicks");
+ *
+ * @author Sven Winkler
+ */
+public class CountingHistogramMetrics implements HistogramMetrics, HistogramMetricsMXBean {
+
+	/** Number of entries of the cascade depth histogram. */
+	private static final int DEPTHS = 16;
+
+	/** Number of events between two snapshots of the Buckets per size class. */
+	private static final int SNAPSHOT_INTERVAL = 1024;
+
+	private final ExponentialHistogram histogram;
+
+	private volatile long elements;
+	private volatile long ones;
+	private volatile long merges;
+	private volatile long expirations;
+	private final long [] cascadeDepths = new long [DEPTHS];
+
+	/** Written only by the updating thread, like the counters above; changes of the layout are rare, so a volatile store suffices. */
+	private volatile long relayouts;
+	private volatile long relayoutMerges;
+
+	/**
+	 * Gauges of the histogram, copied by the updating thread.
+	 */
+	private static final class Snapshot {
+		final int [] bucketsPerClass;
+		final long memoryInBytes;
+
+		Snapshot (ExponentialHistogram histogram) {
+			bucketsPerClass = histogram.bucketsPerClass();
+			memoryInBytes = histogram.memoryInBytes();
+		}
+	}
+
+	private volatile Snapshot snapshot;
+	private int eventsToSnapshot = SNAPSHOT_INTERVAL;
+
+	private ExactWindowCounter shadow;
+	private long sampleInterval;
+	private long elementsToSample;
+
+	private volatile long absoluteError = -1;
+	private volatile double relativeError = -1;
+	private volatile double maxRelativeError = -1;
+
+	private static final VarHandle ELEMENTS;
+	private static final VarHandle ONES;
+	private static final VarHandle MERGES;
+	private static final VarHandle EXPIRATIONS;
+	private static final VarHandle CASCADE_DEPTHS = MethodHandles.arrayElementVarHandle(long [].class);
+	static {
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			ELEMENTS = lookup.findVarHandle(CountingHistogramMetrics.class, "elements", long.class);
+			ONES = lookup.findVarHandle(CountingHistogramMetrics.class, "ones", long.class);
+			MERGES = lookup.findVarHandle(CountingHistogramMetrics.class, "merges", long.class);
+			EXPIRATIONS = lookup.findVarHandle(CountingHistogramMetrics.class, "expirations", long.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	/**
+	 * Creates the metrics of a histogram and sets them as its receiver of events.
+	 * Has to be called by the thread that updates the histogram, or before it starts.
+	 * @param histogram	The observed histogram.
+	 */
+	public CountingHistogramMetrics (ExponentialHistogram histogram) {
+		this.histogram = histogram;
+		snapshot = new Snapshot(histogram);
+		histogram.setMetrics(this);
+	}
+
+	/**
+	 * Starts an exact shadow window that is compared with the estimate at a fixed interval.
+	 * The shadow window starts empty, so the first samples within one window size are not meaningful for a running histogram.
+	 * @param interval	Number of elements between two samples.
+	 */
+	public void enableShadow (long interval) {
+		if (interval < 1) {
+			throw new IllegalArgumentException("Sample interval must be positive: " + interval);
+		}
+		shadow = new ExactWindowCounter(Math.toIntExact(histogram.getWindowSize()));
+		sampleInterval = interval;
+		elementsToSample = interval;
+	}
+
+	/**
+	 * Registers the MXBean at the platform MBean server.
+	 * @param name		Name of the histogram, part of the object name "SlidingWindow:type=Histogram,name=...".
+	 * @return		The object name of the MXBean.
+	 * @throws JMException	If the name is invalid or already registered.
+	 */
+	public ObjectName register (String name) throws JMException {
+		ObjectName objectName = new ObjectName("SlidingWindow:type=Histogram,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		return objectName;
+	}
+
+	/*----------------------------------------------------------------------------------*/
+
+	@Override
+	public void updated (long elements, long ones) {
+		ELEMENTS.setRelease(this, (long) ELEMENTS.get(this) + elements);
+		ONES.setRelease(this, (long) ONES.get(this) + ones);
+		if (shadow != null) {
+			shadow.advance(elements);
+			if (ones > 0) {
+				shadow.markNewest();
+			}
+			elementsToSample -= elements;
+			if (elementsToSample <= 0) {
+				sample();
+				elementsToSample = sampleInterval;
+			}
+		}
+		//Every update ends with this event, so the histogram is consistent here
+		if (--eventsToSnapshot <= 0) {
+			snapshot = new Snapshot(histogram);
+			eventsToSnapshot = SNAPSHOT_INTERVAL;
+		}
+	}
+
+	@Override
+	public void relaidOut (int activeErrParam, long merges) {
+		relayouts++;
+		relayoutMerges += merges;
+		snapshot = new Snapshot(histogram);
+	}
+
+	@Override
+	public void merged (int depth, long merges) {
+		MERGES.setRelease(this, (long) MERGES.get(this) + merges);
+		int d = Math.min(depth, DEPTHS - 1);
+		CASCADE_DEPTHS.setRelease(cascadeDepths, d, (long) CASCADE_DEPTHS.get(cascadeDepths, d) + 1);
+	}
+
+	@Override
+	public void expired (int buckets) {
+		EXPIRATIONS.setRelease(this, (long) EXPIRATIONS.get(this) + buckets);
+	}
+
+	private void sample () {
+		long exact = shadow.exactSumOfOnes();
+		long error = Math.abs(histogram.estimatedNumberOfOnes() - exact);
+		double relative = exact == 0 ? (error == 0 ? 0 : 1) : (double) error / exact;
+		absoluteError = error;
+		relativeError = relative;
+		if (relative > maxRelativeError) {
+			maxRelativeError = relative;
+		}
+	}
+
+	/*----------------------------------------------------------------------------------*/
+
+	@Override
+	public long getElements () {
+		return elements;
+	}
+
+	@Override
+	public long getOnes () {
+		return ones;
+	}
+
+	@Override
+	public long getMerges () {
+		return merges;
+	}
+
+	@Override
+	public long getExpirations () {
+		return expirations;
+	}
+
+	@Override
+	public long getRelayouts () {
+		return relayouts;
+	}
+
+	@Override
+	public long getRelayoutMerges () {
+		return relayoutMerges;
+	}
+
+	@Override
+	public long [] getCascadeDepths () {
+		long [] depths = new long [DEPTHS];
+		for (int d = 0; d < DEPTHS; d++) {
+			depths[d] = (long) CASCADE_DEPTHS.getAcquire(cascadeDepths, d);
+		}
+		return depths;
+	}
+
+	@Override
+	public int getNumberOfBuckets () {
+		int buckets = 0;
+		for (int count : snapshot.bucketsPerClass) {
+			buckets += count;
+		}
+		return buckets;
+	}
+
+	@Override
+	public int [] getBucketsPerClass () {
+		return snapshot.bucketsPerClass.clone();
+	}
+
+	@Override
+	public long getMemoryInBytes () {
+		return snapshot.memoryInBytes;
+	}
+
+	@Override
+	public long getEstimate () {
+		return histogram.publishedEstimate();
+	}
+
+	@Override
+	public double getRelativeError () {
+		return relativeError;
+	}
+
+	@Override
+	public double getMaxRelativeError () {
+		return maxRelativeError;
+	}
+
+	@Override
+	public long getAbsoluteError () {
+		return absoluteError;
+	}
+}
@@ -0,0 +1,29 @@
+import java.io.PrintStream;
+
+/**
+ * Writes every estimate as one CSV line (elements, estimate, exact, relative error).
+ *
+ * @author Sven Winkler
+ */
+public class CsvEstimateSink implements EstimateSink {
+
+	private final PrintStream output;
+
+	/**
+	 * @param output	Stream for the lines, for example System.out. A header line is written immediately.
+	 */
+	public CsvEstimateSink (PrintStream output) {
+		this.output = output;
+		output.println("elements,estimate,exact,relativeError");
+	}
+
+	@Override
+	public void report (long elements, long estimate, long exact) {
+		//Relative error as in the class "SlidingWindowThread"
+		float relErr = 0;
+		if (exact > 0) {
+			relErr = (float) Math.abs(estimate - exact) / exact;
+		}
+		output.println(elements + "," + estimate + "," + exact + "," + (exact < 0 ? "" : relErr));
+	}
+}
@@ -0,0 +1,15 @@
+/**
+ * Source of the data stream for the class "StreamRunner". The elements are delivered in batches of packed bits,
+ * in the bit order of "BitSet": element i of a batch is bit (i % 64) of word i / 64.
+ *
+ * @author Sven Winkler
+ */
+public interface ElementSource {
+
+	/**
+	 * Fills the array with the next elements of the stream.
+	 * @param words		Array for the packed elements.
+	 * @return		Number of elements written into the array, -1 at the end of the stream.
+	 */
+	int fill (long [] words);
+}
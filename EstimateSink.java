@@ -0,0 +1,14 @@
+/**
+ * Receiver of the estimates of the class "StreamRunner", which are emitted at a fixed interval of elements.
+ *
+ * @author Sven Winkler
+ */
+public interface EstimateSink {
+
+	/**
+	 * @param elements	Number of elements processed so far.
+	 * @param estimate	Estimated number of ones in the window.
+	 * @param exact		Exact number of ones in the window, -1 if the runner does not count them.
+	 */
+	void report (long elements, long estimate, long exact);
+}
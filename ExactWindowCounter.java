@@ -0,0 +1,137 @@
+import java.util.Arrays;
+
+/**
+ * Exact number of ones in the Sliding Window, as ground truth beside the estimate of the algorithm.
+ *
+ * The window is a ring buffer with one bit per element in a long array, and the number of ones is kept up to date,
+ * so an update and a query take constant time and no memory is allocated (unlike "SlidingWindow.updateWindow" and "exactSumOfOnes").
+ *
+ * @author Sven Winkler
+ */
+public class ExactWindowCounter {
+
+	private final int windowSize;
+	private final long [] bits;
+
+	/** Position in the ring of the oldest element, which is overwritten by the next element. */
+	private int position;
+	private int sumOfOnes;
+
+	/**
+	 * Creates a window that only contains zeros.
+	 * @param windowSize	Size of the Sliding Window.
+	 */
+	public ExactWindowCounter (int windowSize) {
+		if (windowSize < 1) {
+			throw new IllegalArgumentException("windowSize must be positive: " + windowSize);
+		}
+		this.windowSize = windowSize;
+		bits = new long [(windowSize + 63) >>> 6];
+	}
+
+	/**
+	 * The new element enters the window and the oldest one drops out.
+	 * @param newElement	0 or 1
+	 */
+	public void update (int newElement) {
+		int word = position >>> 6;
+		long mask = 1L << position;
+		if ((bits[word] & mask) != 0) {
+			sumOfOnes--;
+		}
+		if (newElement == 1) {
+			bits[word] |= mask;
+			sumOfOnes++;
+		} else {
+			bits[word] &= ~mask;
+		}
+
+		position++;
+		if (position == windowSize) {
+			position = 0;
+		}
+	}
+
+	/**
+	 * The lowest bits of a word enter the window, bit 0 first. The bits are copied in pieces that fit into one word of the ring,
+	 * so a word of 64 elements needs at most a few steps instead of 64 single updates.
+	 * @param word		Packed elements.
+	 * @param numberOfBits	Number of elements in the word (1 to 64).
+	 */
+	public void update (long word, int numberOfBits) {
+		while (numberOfBits > 0) {
+			int piece = Math.min(numberOfBits, Math.min(64 - (position & 63), windowSize - position));
+			long mask = piece == 64 ? -1L : (1L << piece) - 1;
+			int index = position >>> 6;
+			int shift = position & 63;
+
+			long oldBits = (bits[index] >>> shift) & mask;
+			long newBits = word & mask;
+			sumOfOnes += Long.bitCount(newBits) - Long.bitCount(oldBits);
+			bits[index] = (bits[index] & ~(mask << shift)) | (newBits << shift);
+
+			word = piece == 64 ? 0 : word >>> piece;
+			numberOfBits -= piece;
+			position += piece;
+			if (position == windowSize) {
+				position = 0;
+			}
+		}
+	}
+
+	/**
+	 * A number of zeros enter the window. More zeros than the window size simply clear the window.
+	 * @param steps		Number of zeros.
+	 */
+	public void advance (long steps) {
+		if (steps >= windowSize) {
+			Arrays.fill(bits, 0);
+			sumOfOnes = 0;
+			position = (int) ((position + steps) % windowSize);
+			return;
+		}
+		for (int n = (int) steps; n > 0; n -= 64) {
+			update(0L, Math.min(n, 64));
+		}
+	}
+
+	/**
+	 * Turns the newest element of the window into a one, as the method "add" of the class "ExponentialHistogram" does.
+	 */
+	public void markNewest () {
+		int newest = position == 0 ? windowSize - 1 : position - 1;
+		long mask = 1L << newest;
+		if ((bits[newest >>> 6] & mask) == 0) {
+			bits[newest >>> 6] |= mask;
+			sumOfOnes++;
+		}
+	}
+
+	/**
+	 * @return		Number of ones in the window.
+	 */
+	public int exactSumOfOnes () {
+		return sumOfOnes;
+	}
+
+	public int getWindowSize () {
+		return windowSize;
+	}
+
+	/**
+	 * Method for console output, in the same representation as the method "updateWindow" of the class "SlidingWindow".
+	 * @return		The window with the newest element on the right side (highest index of the array).
+	 */
+	public int [] toArray () {
+		int [] window = new int [windowSize];
+		int p = position;
+		for (int i = 0; i < windowSize; i++) {
+			window[i] = (int) (bits[p >>> 6] >>> p) & 1;
+			p++;
+			if (p == windowSize) {
+				p = 0;
+			}
+		}
+		return window;
+	}
+}
@@ -0,0 +1,889 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Engine for the algorithm of the class "SlidingWindowHistogram" that needs constant amortized work per arriving element.
+ *
+ * Instead of one ArrayList containing all Buckets, the histogram keeps one ring of timestamps for every size class (1,2,4,8,...).
+ * The size of a Bucket is given by its class, so only the timestamp has to be stored.
+ * The timestamp is the absolute arrival number of the newest one in the Bucket, so it never has to be incremented:
+ * the age of a Bucket is the difference between the clock of the histogram and its timestamp.
+ *
+ * Within a size class the oldest Buckets are at the front of the ring, and every Bucket of a size class is at least as old
+ * as all Buckets of the smaller classes. Therefore the Bucket that expires next is always the front of the highest non-empty class
+ * and the two Buckets that are merged are always the front of the overflowing class.
+ *
+ * The histogram passes through the same states as the method "updateHistogram" for an error parameter of at least 4.
+ *
+ * The sum of all bucket sizes is kept up to date when a Bucket is created, merged or removed, and the oldest Bucket is the front
+ * of the highest class, so an estimate is a constant-time read. After every update the estimate is also published in a volatile
+ * field, which other threads can read without a lock.
+ *
+ * The limits of the size classes can be lowered at runtime ("setActiveErrParam"), for example to keep many histograms within
+ * a memory budget: the overflowing classes are merged down and the rings shrink. When the limits are raised again, the coarse
+ * Buckets stay until they expire, so the coarse error bound is reported ("guaranteedRelativeError") for one more window.
+ *
+ * @author Sven Winkler
+ */
+public class ExponentialHistogram implements BucketView {
+
+	/** Bytes of the object header and the fields, for "memoryInBytes". */
+	static final int FIELD_BYTES = 96;
+
+	private final long windowSize;
+	private final int errParam;
+
+	/** Number of elements that have arrived so far. */
+	private long clock;
+
+	/** Rings of all size classes, one after another. The ring of a class holds one Bucket more than the limit of the class. */
+	private long [] timestamps;
+	private int [] first;
+	private int [] count;
+
+	/** Error parameter that determines the current limits of the classes and the length of the rings, at most errParam. */
+	private int activeErrParam;
+
+	/** Error parameter whose bound holds until the clock reaches "guaranteeUntil"; afterwards the active one holds. */
+	private int guaranteedErrParam;
+	private long guaranteeUntil;
+
+	/** Highest size class that contains a Bucket, -1 if the histogram is empty. */
+	private int topClass = -1;
+
+	/** Sum of the sizes of all Buckets. */
+	private long total;
+
+	/** Estimate after the last completed update, for readers in other threads. */
+	private volatile long publishedEstimate;
+
+	/** Receiver of the events of the histogram, null if the histogram is not observed. */
+	private HistogramMetrics metrics;
+
+	private static final VarHandle PUBLISHED_ESTIMATE;
+	static {
+		try {
+			PUBLISHED_ESTIMATE = MethodHandles.lookup().findVarHandle(ExponentialHistogram.class, "publishedEstimate", long.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	/** Timestamps of the merged Buckets that are carried into the next size class by "add(long)", allocated on first use. */
+	private long [] carries;
+	private long [] nextCarries;
+
+	/**
+	 * Creates an empty histogram. The rings are sized up front for the largest size class that can occur in the window,
+	 * so no memory is allocated while the stream is processed.
+	 * @param windowSize	Size of the Sliding Window.
+	 * @param errParam	The error parameter: the smallest size class holds at most errParam Buckets, every other class errParam/2.
+	 */
+	public ExponentialHistogram (int windowSize, int errParam) {
+		this(windowSize, errParam, windowSize);
+	}
+
+	/**
+	 * Creates an empty histogram with the parameters of a configuration, for example one that was derived from a target
+	 * relative error with "HistogramConfig.forRelativeError".
+	 * @param config	Window size, error parameter and maximum number of ones in the window.
+	 */
+	public ExponentialHistogram (HistogramConfig config) {
+		this(config.getWindowSize(), config.getErrParam(), config.getMaxOnesInWindow());
+	}
+
+	/**
+	 * Creates an empty histogram for a stream in which several ones can arrive at the same time (see the method "add(long)").
+	 * @param windowSize		Size of the Sliding Window, in steps of the clock.
+	 * @param errParam		The error parameter.
+	 * @param maxOnesInWindow	Maximum number of ones in the window, which determines the number of size classes.
+	 */
+	ExponentialHistogram (long windowSize, int errParam, long maxOnesInWindow) {
+		this(windowSize, errParam, maxOnesInWindow, errParam);
+	}
+
+	/**
+	 * Creates an empty histogram whose limits start below the error parameter, so the rings are allocated in the smaller size.
+	 * @param windowSize		Size of the Sliding Window, in steps of the clock.
+	 * @param errParam		The error parameter, the upper bound of the active one.
+	 * @param maxOnesInWindow	Maximum number of ones in the window.
+	 * @param activeErrParam	Error parameter of the limits, from 2 to errParam.
+	 */
+	ExponentialHistogram (long windowSize, int errParam, long maxOnesInWindow, int activeErrParam) {
+		checkParameters(windowSize, errParam);
+		checkActiveErrParam(activeErrParam, errParam);
+		this.windowSize = windowSize;
+		this.errParam = errParam;
+		this.activeErrParam = activeErrParam;
+		guaranteedErrParam = activeErrParam;
+
+		allocateClasses(HistogramConfig.numberOfClasses(maxOnesInWindow));
+	}
+
+	static void checkParameters (long windowSize, int errParam) {
+		if (windowSize < 1) {
+			throw new IllegalArgumentException("windowSize must be positive: " + windowSize);
+		}
+		if (errParam < 2) {
+			throw new IllegalArgumentException("errParam must be at least 2: " + errParam);
+		}
+	}
+
+	private static void checkActiveErrParam (int activeErrParam, int errParam) {
+		if (activeErrParam < 2 || activeErrParam > errParam) {
+			throw new IllegalArgumentException("Active error parameter must be between 2 and " + errParam + ": " + activeErrParam);
+		}
+	}
+
+	/**
+	 * Processes a new element, in the same order of steps as the method "updateHistogram" of the class "SlidingWindowHistogram".
+	 * @param newElement	0 or 1 that is processed by the algorithm
+	 */
+	public void update (int newElement) {
+
+		//The window "moves" one step
+		clock++;
+
+		//Only if the new element is a one, create a new Bucket of size 1
+		if (newElement == 1) {
+			push(0, clock);
+		}
+
+		//Remove the oldest Bucket, if its timestamp is expired
+		removeExpiredBuckets();
+
+		//Merge the two oldest Buckets of a class as long as a class contains more Buckets than allowed
+		if (newElement == 1) {
+			mergeBuckets();
+		}
+		publish();
+		if (metrics != null) {
+			metrics.updated(1, newElement == 1 ? 1 : 0);
+		}
+	}
+
+	/**
+	 * Moves the window forward to the given arrival number, as if only zeros had arrived in between.
+	 * Every Bucket expires only once, so skipping a long run of zeros costs no more than the Buckets that are removed.
+	 * @param time		New value of the clock, not smaller than the current one.
+	 */
+	public void advanceTo (long time) {
+		if (time < clock) {
+			throw new IllegalArgumentException("Clock cannot move backwards from " + clock + " to " + time);
+		}
+		long steps = time - clock;
+		clock = time;
+		removeExpiredBuckets();
+		publish();
+		if (metrics != null && steps > 0) {
+			metrics.updated(steps, 0);
+		}
+	}
+
+	/**
+	 * Adds a one that arrives at the current clock value, without moving the window.
+	 * Together with "advanceTo" this processes a stream in which most elements are zeros.
+	 */
+	public void add () {
+		push(0, clock);
+		mergeBuckets();
+		publish();
+		if (metrics != null) {
+			metrics.updated(0, 1);
+		}
+	}
+
+	/**
+	 * Adds a number of ones that arrive at the current clock value at once, without moving the window.
+	 * The histogram is the same as after calling "add()" that many times, but the work only grows with the logarithm of the number:
+	 * the ones of a size class are merged pairwise like the carry of a binary addition, and all merged Buckets that consist
+	 * of new ones only have the current timestamp, so they are carried into the next class as a number instead of one by one.
+	 * @param ones		Number of ones, not negative.
+	 */
+	public void add (long ones) {
+		if (ones < 0) {
+			throw new IllegalArgumentException("Number of ones must not be negative: " + ones);
+		}
+		if (carries == null) {
+			carries = new long [errParam + 2];
+			nextCarries = new long [errParam + 2];
+		}
+
+		//Input of the size class: the Buckets in its ring, the explicit carries and a number of Buckets with the current timestamp
+		int explicit = 0;
+		long current = ones;
+		int c = 0;
+		long totalMerges = 0;
+		while (explicit > 0 || current > 0) {
+			if (c == count.length) {
+				allocateClasses(count.length + 1);
+			}
+			int stored = count[c];
+			long input = stored + explicit + current;
+			if (input <= limit(c)) {
+				pushCarries(c, 0, explicit, current);
+				break;
+			}
+
+			//Every time the class exceeds its limit, its two oldest Buckets are merged, until all input has arrived
+			long merges = 1 + (input - limit(c) - 1) / 2;
+			totalMerges += merges;
+			int explicitMerges = (int) Math.min(merges, (stored + explicit) / 2);
+			for (int i = 0; i < explicitMerges; i++) {
+				int younger = 2 * i + 1;
+				nextCarries[i] = younger < stored ? timestampAt(c, younger) : carries[younger - stored];
+			}
+
+			//Remove the merged Buckets and store the rest of the input
+			long consumed = 2 * merges;
+			int fromRing = (int) Math.min(consumed, stored);
+			for (int i = 0; i < fromRing; i++) {
+				popOldest(c);
+			}
+			int fromCarries = (int) Math.min(consumed - fromRing, explicit);
+			pushCarries(c, fromCarries, explicit, current - (consumed - fromRing - fromCarries));
+
+			long [] swap = carries;
+			carries = nextCarries;
+			nextCarries = swap;
+			explicit = explicitMerges;
+			current = merges - explicitMerges;
+			c++;
+		}
+		publish();
+		if (metrics != null) {
+			if (totalMerges > 0) {
+				metrics.merged(c, totalMerges);
+			}
+			metrics.updated(0, ones);
+		}
+	}
+
+	/**
+	 * Processes the lowest bits of a word, bit 0 first. Runs of zeros are skipped in one step by moving the clock,
+	 * so the work depends on the number of ones only. The histogram is the same as after processing the bits one by one.
+	 * @param word		Packed elements.
+	 * @param bits		Number of elements in the word (1 to 64).
+	 */
+	public void update (long word, int bits) {
+		if (bits < 1 || bits > 64) {
+			throw new IllegalArgumentException("Number of bits must be between 1 and 64: " + bits);
+		}
+		long start = clock;
+		long ones = bits == 64 ? word : word & ((1L << bits) - 1);
+		while (ones != 0) {
+			advanceTo(start + Long.numberOfTrailingZeros(ones) + 1);
+			add();
+			ones &= ones - 1;
+		}
+		advanceTo(start + bits);
+	}
+
+	/**
+	 * Processes packed elements, in the bit order of "BitSet": bit i of the stream is bit (i % 64) of word i / 64.
+	 * @param words		Packed elements.
+	 * @param numberOfBits	Number of elements, at most 64 times the length of the array.
+	 */
+	public void update (long [] words, long numberOfBits) {
+		if (numberOfBits < 0 || numberOfBits > 64L * words.length) {
+			throw new IllegalArgumentException("Number of bits out of range for " + words.length + " words: " + numberOfBits);
+		}
+		int fullWords = (int) (numberOfBits >>> 6);
+		for (int i = 0; i < fullWords; i++) {
+			update(words[i], 64);
+		}
+		int rest = (int) (numberOfBits & 63);
+		if (rest > 0) {
+			update(words[fullWords], rest);
+		}
+	}
+
+	/**
+	 * Processes the elements fromIndex (inclusive) to toIndex (exclusive) of a BitSet, jumping from one set bit to the next.
+	 * @param bits		Packed elements.
+	 * @param fromIndex	Index of the first element.
+	 * @param toIndex	Index after the last element.
+	 */
+	public void update (BitSet bits, int fromIndex, int toIndex) {
+		if (fromIndex < 0 || toIndex < fromIndex) {
+			throw new IllegalArgumentException("Invalid range of elements: " + fromIndex + " to " + toIndex);
+		}
+		long start = clock - fromIndex;
+		for (int i = bits.nextSetBit(fromIndex); i >= 0 && i < toIndex; i = bits.nextSetBit(i + 1)) {
+			advanceTo(start + i + 1);
+			add();
+		}
+		advanceTo(start + toIndex);
+	}
+
+	/**
+	 * Processes the remaining bytes of a buffer, in the bit order of "BitSet.valueOf(ByteBuffer)": the lowest bit of each byte first.
+	 * The position of the buffer is moved to its limit.
+	 * @param buffer	Packed elements.
+	 */
+	public void update (ByteBuffer buffer) {
+		ByteBuffer bytes = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+		while (bytes.remaining() >= 8) {
+			update(bytes.getLong(), 64);
+		}
+		while (bytes.hasRemaining()) {
+			update(bytes.get(), 8);
+		}
+		buffer.position(buffer.limit());
+	}
+
+	/**
+	 * Returns the number of ones in the Sliding Window according to the algorithm.
+	 * @return		Sum of the bucket sizes minus the half of the size of the oldest bucket.
+	 */
+	public long estimatedNumberOfOnes () {
+		return topClass < 0 ? 0 : total - (1L << topClass) / 2;
+	}
+
+	/**
+	 * @return		Sum of the sizes of all Buckets, the first term of the estimate.
+	 */
+	public long sumOfBucketSizes () {
+		return total;
+	}
+
+	/**
+	 * @return		Size of the oldest Bucket, whose half is subtracted in the estimate, 0 if the histogram is empty.
+	 */
+	public long oldestBucketSize () {
+		return topClass < 0 ? 0 : 1L << topClass;
+	}
+
+	/**
+	 * Returns the estimate after the last completed update. Unlike the other methods, it may be called by any thread
+	 * while the histogram is updated, without a lock.
+	 * @return		The value of "estimatedNumberOfOnes" after the last update.
+	 */
+	public long publishedEstimate () {
+		return publishedEstimate;
+	}
+
+	/**
+	 * Returns the estimate at a later clock value without changing the histogram: expired Buckets are skipped instead of removed.
+	 * The method only reads the fields of the histogram, so it can run optimistically while another thread updates it
+	 * (see the class "ConcurrentHistogram"); a torn read then returns a wrong value or throws an exception and has to be repeated.
+	 * @param time		Clock value at which the window is evaluated, not smaller than the clock of the histogram.
+	 * @return		Sum of the sizes of the Buckets in the window minus the half of the size of the oldest one.
+	 */
+	public long estimatedNumberOfOnes (long time) {
+		//Find the oldest Bucket that is not expired at the given time
+		int c = topClass;
+		int i = 0;
+		while (c >= 0) {
+			if (i == count[c]) {
+				c--;
+				i = 0;
+			} else if (time - timestampAt(c, i) >= windowSize) {
+				i++;
+			} else {
+				break;
+			}
+		}
+		if (c < 0) {
+			return 0;
+		}
+
+		//The expired Buckets are the i oldest ones of class c and all Buckets of the classes above it
+		long sum = total - ((long) i << c);
+		for (int k = c + 1; k <= topClass; k++) {
+			sum -= (long) count[k] << k;
+		}
+		return sum - (1L << c) / 2;
+	}
+
+	/**
+	 * Returns the number of ones among the last k elements, for any k up to the window size, from the same histogram.
+	 * The Buckets that are younger than k are found by a binary search over the timestamps of the size class
+	 * that contains the boundary; the estimate is their sum minus the half of the oldest of them, as for the whole window.
+	 * @param k		Length of the sub-window (values above the window size are treated as the window size).
+	 * @return		Estimated number of ones among the last k elements.
+	 */
+	public long estimate (long k) {
+		if (k < 1) {
+			throw new IllegalArgumentException("Horizon must be positive: " + k);
+		}
+		long horizon = Math.min(k, windowSize);
+
+		//The oldest size class whose newest Bucket is younger than the horizon contains the boundary
+		int c = topClass;
+		while (c >= 0 && (count[c] == 0 || clock - timestampAt(c, count[c] - 1) >= horizon)) {
+			c--;
+		}
+		if (c < 0) {
+			return 0;
+		}
+
+		//Binary search for the oldest Bucket of the class that is younger than the horizon
+		int low = 0;
+		int high = count[c] - 1;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (clock - timestampAt(c, middle) < horizon) {
+				high = middle;
+			} else {
+				low = middle + 1;
+			}
+		}
+
+		long sum = (long) (count[c] - low) << c;
+		for (int lower = c - 1; lower >= 0; lower--) {
+			sum += (long) count[lower] << lower;
+		}
+		return sum - (1L << c) / 2;
+	}
+
+	/**
+	 * Returns the estimates for several sub-windows in one pass over the Buckets, from the newest to the oldest one.
+	 * @param horizons	Lengths of the sub-windows, sorted in ascending order.
+	 * @param estimates	Array for the results, estimates[i] belongs to horizons[i].
+	 */
+	public void estimate (long [] horizons, long [] estimates) {
+		int j = 0;
+		long sum = 0;
+		long oldestSize = 0;
+		for (int c = 0; c <= topClass && j < horizons.length; c++) {
+			for (int i = count[c] - 1; i >= 0 && j < horizons.length; i--) {
+				long age = clock - timestampAt(c, i);
+				//The Bucket is too old for the current horizon: the estimate of the horizon is complete
+				while (j < horizons.length && age >= Math.min(horizons[j], windowSize)) {
+					estimates[j] = sum - oldestSize / 2;
+					j = nextHorizon(horizons, j);
+				}
+				sum += 1L << c;
+				oldestSize = 1L << c;
+			}
+		}
+		while (j < horizons.length) {
+			estimates[j] = sum - oldestSize / 2;
+			j = nextHorizon(horizons, j);
+		}
+	}
+
+	private static int nextHorizon (long [] horizons, int j) {
+		if (horizons[j] < 1 || (j > 0 && horizons[j] < horizons[j - 1])) {
+			throw new IllegalArgumentException("Horizons must be positive and sorted in ascending order");
+		}
+		return j + 1;
+	}
+
+	@Override
+	public int numberOfBuckets () {
+		int buckets = 0;
+		for (int c = 0; c <= topClass; c++) {
+			buckets += count[c];
+		}
+		return buckets;
+	}
+
+	/**
+	 * Number of Buckets per size class, like the method "countBucketsPerClass" of the class "SlidingWindowHistogram".
+	 * @return		Array with the number of Buckets of size 2^c at index c, up to the highest non-empty class.
+	 */
+	public int [] bucketsPerClass () {
+		return Arrays.copyOf(count, topClass + 1);
+	}
+
+	/**
+	 * Sets the receiver of the events of the histogram (updates, merges and expirations).
+	 * Without a receiver, the events cost one comparison with null each.
+	 * @param metrics	The receiver, null to stop observing the histogram.
+	 */
+	public void setMetrics (HistogramMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * @return		True, if the histogram contains no Bucket, i.e. there is no one in the window.
+	 */
+	public boolean isEmpty () {
+		return topClass < 0;
+	}
+
+	/**
+	 * @return		Arrival number of the newest one in the window, -1 if the histogram is empty.
+	 */
+	public long newestTimestamp () {
+		for (int c = 0; c <= topClass; c++) {
+			if (count[c] > 0) {
+				return timestampAt(c, count[c] - 1);
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Approximate heap memory of the histogram (object headers, fields and arrays with compressed references).
+	 * @return		Number of bytes.
+	 */
+	public long memoryInBytes () {
+		long bytes = FIELD_BYTES + arrayBytes(8, timestamps.length) + 2 * arrayBytes(4, count.length);
+		if (carries != null) {
+			bytes += 2 * arrayBytes(8, carries.length);
+		}
+		return bytes;
+	}
+
+	static long arrayBytes (int elementSize, int length) {
+		return (16 + (long) elementSize * length + 7) & ~7L;
+	}
+
+	@Override
+	public long timestamp (int i) {
+		for (int c = topClass; c >= 0; c--) {
+			if (i < count[c]) {
+				return timestampAt(c, i);
+			}
+			i -= count[c];
+		}
+		throw new IndexOutOfBoundsException("Bucket index out of range: " + i);
+	}
+
+	@Override
+	public int sizeExponent (int i) {
+		for (int c = topClass; c >= 0; c--) {
+			if (i < count[c]) {
+				return c;
+			}
+			i -= count[c];
+		}
+		throw new IndexOutOfBoundsException("Bucket index out of range: " + i);
+	}
+
+	/**
+	 * Copies the Buckets into a packed list, the oldest Bucket first. The list is cleared before.
+	 * @param target	List that is filled, its array is reused.
+	 */
+	public void copyTo (PackedBuckets target) {
+		target.clear();
+		for (int c = topClass; c >= 0; c--) {
+			for (int i = 0; i < count[c]; i++) {
+				target.add(PackedBuckets.pack(timestampAt(c, i), c));
+			}
+		}
+	}
+
+	/**
+	 * Appends a Bucket while a histogram is restored (see the class "HistogramSnapshots").
+	 * The Buckets have to be appended from the oldest to the newest one, and the clock is set afterwards with "advanceTo".
+	 * @param timestamp	Arrival number of the newest one in the Bucket.
+	 * @param exponent	Exponent of the bucket size.
+	 * @throws IllegalArgumentException	If the Bucket is larger or older than the newest Bucket so far, or its class is full.
+	 */
+	void appendBucket (long timestamp, int exponent) {
+		if (exponent < 0 || exponent >= 62) {
+			throw new IllegalArgumentException("Invalid bucket size exponent: " + exponent);
+		}
+		//The newest Bucket so far is the newest one of the lowest non-empty class
+		for (int c = 0; c <= topClass; c++) {
+			if (count[c] > 0) {
+				if (exponent > c || timestamp < timestampAt(c, count[c] - 1)) {
+					throw new IllegalArgumentException("Bucket of size 2^" + exponent + " at " + timestamp
+							+ " is not newer than the Bucket of size 2^" + c + " at " + timestampAt(c, count[c] - 1));
+				}
+				break;
+			}
+		}
+		while (exponent >= count.length) {
+			allocateClasses(count.length + 1);
+		}
+		if (count[exponent] >= limit(exponent)) {
+			throw new IllegalArgumentException("Too many Buckets of size 2^" + exponent);
+		}
+		push(exponent, timestamp);
+	}
+
+	public long getWindowSize () {
+		return windowSize;
+	}
+
+	public int getErrParam () {
+		return errParam;
+	}
+
+	/**
+	 * @return		Error parameter of the current limits of the size classes.
+	 */
+	public int getActiveErrParam () {
+		return activeErrParam;
+	}
+
+	/**
+	 * Changes the limits of the size classes, like a histogram with another error parameter (the equivalent of the limit
+	 * that "bucketSizeMergeRequired" of the class "SlidingWindowHistogram" enforces), and reallocates the rings in the new size.
+	 * A lower value merges the two oldest Buckets of every class that exceeds its new limit, from the smallest class upwards,
+	 * as the merges of "update" do; the histogram then holds fewer Buckets and the error bound of the lower value holds at once.
+	 * A higher value only enlarges the rings: the Buckets that were merged coarsely stay until they expire, so the error bound
+	 * of the lower value still holds for the next windowSize elements (see "guaranteedRelativeError").
+	 * @param activeErrParam	New error parameter of the limits, from 2 to the error parameter of the histogram.
+	 */
+	public void setActiveErrParam (int activeErrParam) {
+		checkActiveErrParam(activeErrParam, errParam);
+		if (activeErrParam == this.activeErrParam) {
+			return;
+		}
+		int guaranteed = guaranteedErrParam();
+		if (activeErrParam < this.activeErrParam) {
+			guaranteedErrParam = Math.min(guaranteed, activeErrParam);
+		} else {
+			guaranteedErrParam = guaranteed;
+			guaranteeUntil = clock + windowSize;
+		}
+		long merges = relayout(activeErrParam);
+		publish();
+		if (metrics != null) {
+			metrics.relaidOut(activeErrParam, merges);
+		}
+	}
+
+	/**
+	 * Lowers or raises the limits of the size classes to the largest error parameter whose histogram fits into the budget
+	 * (at most the error parameter of the histogram, at least 2). Calling it again with a larger budget restores the precision.
+	 * @param bytes		Budget for the fields and rings of the histogram.
+	 * @return		True, if the histogram fits into the budget.
+	 */
+	public boolean setMemoryBudget (long bytes) {
+		int param = HistogramConfig.largestErrParam(bytes, errParam, count.length);
+		setActiveErrParam(param);
+		return HistogramConfig.memoryInBytes(param, count.length) <= bytes;
+	}
+
+	/**
+	 * Error parameter whose bound holds for the current estimate: the active one, unless the limits were raised within
+	 * the last windowSize elements; then the lowest one since the Buckets that are still in the window were formed.
+	 * @return		The error parameter of the guaranteed bound.
+	 */
+	public int guaranteedErrParam () {
+		return clock >= guaranteeUntil ? activeErrParam : guaranteedErrParam;
+	}
+
+	/**
+	 * @return		Relative error that the estimate is guaranteed to have at most, as "HistogramConfig.relativeErrorBound",
+	 * 			for the error parameter of "guaranteedErrParam".
+	 */
+	public double guaranteedRelativeError () {
+		return HistogramConfig.relativeErrorBound(guaranteedErrParam());
+	}
+
+	/**
+	 * @return		Number of elements that have arrived so far.
+	 */
+	public long getClock () {
+		return clock;
+	}
+
+	/**
+	 * Method for console output, in the same representation as the method "histToMultArray" of the class "SlidingWindowHistogram".
+	 * @return		2 dimensional array of buckets with (timestamp, size), the oldest bucket first.
+	 * 			The timestamp is the age of the bucket, as in the ArrayList representation.
+	 */
+	public int [][] toMultArray () {
+		int [][] histArr = new int [numberOfBuckets()][2];
+		int bucketIndex = 0;
+		for (int c = topClass; c >= 0; c--) {
+			for (int i = 0; i < count[c]; i++) {
+				histArr[bucketIndex][0] = (int) (clock - timestampAt(c, i) + 1);
+				histArr[bucketIndex][1] = 1 << c;
+				bucketIndex++;
+			}
+		}
+		return histArr;
+	}
+
+	/**
+	 * Method for console output, in the same representation as the method "histToArray" of the class "SlidingWindowHistogram".
+	 * @return		The bucket sizes, the newest bucket first.
+	 */
+	public int [] toArray () {
+		int [] histArr = new int [numberOfBuckets()];
+		int bucketIndex = 0;
+		for (int c = 0; c <= topClass; c++) {
+			for (int i = count[c] - 1; i >= 0; i--) {
+				histArr[bucketIndex] = 1 << c;
+				bucketIndex++;
+			}
+		}
+		return histArr;
+	}
+
+	/*----------------------------------------------------------------------------------*/
+
+	/**
+	 * Publishes the current estimate with a release store, which is as cheap as a plain store on the hot path
+	 * and still makes the value visible to readers of the volatile field.
+	 */
+	private void publish () {
+		PUBLISHED_ESTIMATE.setRelease(this, estimatedNumberOfOnes());
+	}
+
+	/**
+	 * Maximum number of Buckets in a size class. A class is merged as soon as it contains one Bucket more.
+	 * @param sizeClass	Exponent of the bucket size.
+	 * @return		errParam for the size class 1, errParam/2 for every other class.
+	 */
+	private int limit (int sizeClass) {
+		return sizeClass == 0 ? activeErrParam : activeErrParam / 2;
+	}
+
+	/**
+	 * Removes the oldest Buckets as long as their timestamp is expired (age > window size).
+	 * As every element has an own arrival number, at most one Bucket expires per step of the window.
+	 */
+	private void removeExpiredBuckets () {
+		int expired = 0;
+		while (topClass >= 0 && clock - timestampAt(topClass, 0) >= windowSize) {
+			popOldest(topClass);
+			expired++;
+			while (topClass >= 0 && count[topClass] == 0) {
+				topClass--;
+			}
+		}
+		if (metrics != null && expired > 0) {
+			metrics.expired(expired);
+		}
+	}
+
+	/**
+	 * Merges the two oldest Buckets of the lowest overflowing class into a Bucket of the next class with the younger of both timestamps.
+	 * The merge can only overflow the next class, so the cascade ends at the first class that is not full.
+	 */
+	private void mergeBuckets () {
+		int c = 0;
+		while (count[c] > limit(c)) {
+			popOldest(c);
+			long timestamp = popOldest(c);
+			if (c + 1 == count.length) {
+				allocateClasses(count.length + 1);
+			}
+			push(c + 1, timestamp);
+			c++;
+		}
+		if (metrics != null && c > 0) {
+			metrics.merged(c, c);
+		}
+	}
+
+	private int offset (int sizeClass) {
+		return sizeClass == 0 ? 0 : activeErrParam + 1 + (sizeClass - 1) * (activeErrParam / 2 + 1);
+	}
+
+	private void pushCarries (int sizeClass, int from, int to, long current) {
+		for (int i = from; i < to; i++) {
+			push(sizeClass, carries[i]);
+		}
+		for (long i = 0; i < current; i++) {
+			push(sizeClass, clock);
+		}
+	}
+
+	private long timestampAt (int sizeClass, int i) {
+		int index = first[sizeClass] + i;
+		if (index > limit(sizeClass)) {
+			index -= limit(sizeClass) + 1;
+		}
+		return timestamps[offset(sizeClass) + index];
+	}
+
+	private void push (int sizeClass, long timestamp) {
+		int index = first[sizeClass] + count[sizeClass];
+		if (index > limit(sizeClass)) {
+			index -= limit(sizeClass) + 1;
+		}
+		timestamps[offset(sizeClass) + index] = timestamp;
+		count[sizeClass]++;
+		total += 1L << sizeClass;
+		if (sizeClass > topClass) {
+			topClass = sizeClass;
+		}
+	}
+
+	private long popOldest (int sizeClass) {
+		long timestamp = timestamps[offset(sizeClass) + first[sizeClass]];
+		first[sizeClass]++;
+		if (first[sizeClass] > limit(sizeClass)) {
+			first[sizeClass] = 0;
+		}
+		count[sizeClass]--;
+		total -= 1L << sizeClass;
+		return timestamp;
+	}
+
+	/**
+	 * Moves all Buckets into new rings for another error parameter. Every class receives its own Buckets and, behind them,
+	 * the Buckets merged from the class below, which are younger; as long as it holds more than its new limit,
+	 * its two oldest Buckets are merged into the next class.
+	 * @param newErrParam	The new active error parameter.
+	 * @return		Number of merges of two Buckets.
+	 */
+	private long relayout (int newErrParam) {
+		int numberOfClasses = count.length;
+		long [][] kept = new long [numberOfClasses][];
+		long [] input = new long [2 * errParam + 2];
+		long [] merged = new long [errParam + 1];
+		int mergedCount = 0;
+		int newLimit = newErrParam;
+		long totalMerges = 0;
+		int c = 0;
+		for (; c < numberOfClasses || mergedCount > 0; c++) {
+			//Own Buckets, the oldest first, then the ones from the class below
+			int inputCount = 0;
+			if (c < numberOfClasses) {
+				for (int i = 0; i < count[c]; i++) {
+					input[inputCount++] = timestampAt(c, i);
+				}
+			}
+			System.arraycopy(merged, 0, input, inputCount, mergedCount);
+			inputCount += mergedCount;
+
+			int merges = inputCount > newLimit ? (inputCount - newLimit + 1) / 2 : 0;
+			for (int i = 0; i < merges; i++) {
+				merged[i] = input[2 * i + 1];
+			}
+			mergedCount = merges;
+			totalMerges += merges;
+			if (c == kept.length) {
+				kept = Arrays.copyOf(kept, c + 1);
+			}
+			kept[c] = Arrays.copyOfRange(input, 2 * merges, inputCount);
+			newLimit = newErrParam / 2;
+		}
+
+		activeErrParam = newErrParam;
+		timestamps = null;
+		allocateClasses(Math.max(numberOfClasses, c));
+		total = 0;
+		topClass = -1;
+		for (int k = 0; k < kept.length; k++) {
+			for (long timestamp : kept[k]) {
+				push(k, timestamp);
+			}
+		}
+		return totalMerges;
+	}
+
+	/**
+	 * (Re)allocates the rings for the given number of size classes and keeps the Buckets that are already stored.
+	 * The rings of the existing classes keep their position, so the arrays only have to be extended.
+	 * @param numberOfClasses	Number of size classes.
+	 */
+	private void allocateClasses (int numberOfClasses) {
+		int length = offset(numberOfClasses);
+		if (timestamps == null) {
+			timestamps = new long [length];
+			first = new int [numberOfClasses];
+			count = new int [numberOfClasses];
+		} else {
+			timestamps = Arrays.copyOf(timestamps, length);
+			first = Arrays.copyOf(first, numberOfClasses);
+			count = Arrays.copyOf(count, numberOfClasses);
+		}
+	}
+}
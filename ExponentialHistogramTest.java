@@ -0,0 +1,572 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Equivalence test of the class "ExponentialHistogram" against the method "updateHistogram" of the class "SlidingWindowHistogram":
+ * both process the same random streams, and after every element the Buckets (as "toMultArray" and "toArray") and the estimates
+ * have to be equal.
+ *
+ * For an error parameter of 2 or 3 the two implementations are not equivalent: every class above 1 may then hold only one Bucket,
+ * so a merge can make several classes overflow at once, and "updateHistogram" can end with more than errParam/2 Buckets
+ * in a class (for errParam 2 and only ones, two Buckets of size 4 after 9 elements), while the engine merges every class
+ * down to its limit. These parameters are only checked for a valid histogram (limits of the classes and the sum of the
+ * bucket sizes), not for equivalence.
+ *
+ * Afterwards the other paths of the engine are checked against the single elements or exact counts:
+ * - the packed updates have to produce the same histogram as the same elements one by one,
+ * - the estimates of sub-windows ("estimate(long)" and "estimate(long[], long[])") have to agree with each other and stay
+ *   within the relative error bound of the exact number of ones among the last k elements,
+ * - "HistogramBackfill" has to produce the same histogram as processing the last window of the stream with "update",
+ * - random histograms have to survive a round trip through a snapshot of "HistogramSnapshots",
+ *   and damaged snapshots have to be rejected with an IOException,
+ * - a slot of "HistogramArena" has to reject a one that does not fit instead of overwriting the next slot, and an arena file
+ *   that is too short or has an overflowing slot has to be rejected with an IOException.
+ *
+ * Usage: java ExponentialHistogramTest [seed]
+ * The program exits with the status 1, if a stream produces a difference.
+ *
+ * @author Sven Winkler
+ */
+public class ExponentialHistogramTest {
+
+	static final int [] WINDOW_SIZES = {1, 2, 3, 5, 8, 13, 30, 50, 100, 257};
+	static final double [] DENSITIES = {0.1, 0.5, 0.9, 1.0};
+	static final int STREAM_LENGTH = 3000;
+
+	public static void main (String[] args) {
+		long seed = args.length > 0 ? Long.parseLong(args[0]) : 1;
+		Random random = new Random(seed);
+		int streams = 0;
+		int failures = 0;
+
+		for (int errParam = 2; errParam <= 20; errParam++) {
+			for (int windowSize : WINDOW_SIZES) {
+				for (double density : DENSITIES) {
+					String failure = errParam >= 4 ? compare(windowSize, errParam, density, random) : checkLimits(windowSize, errParam, density, random);
+					if (failure != null) {
+						System.out.println("FAILED windowSize=" + windowSize + " errParam=" + errParam + " density=" + density + ": " + failure);
+						failures++;
+					}
+					streams++;
+				}
+			}
+		}
+
+		System.out.println(streams + " streams, " + failures + " failures");
+
+		failures += report("packed updates", checkPackedUpdates(random));
+		failures += report("sub-window estimates", checkSubWindows(random));
+		failures += report("backfill", checkBackfill(random));
+		failures += report("snapshot round trip", checkSnapshotRoundTrip(random));
+		failures += report("damaged snapshots", checkDamagedSnapshots());
+		failures += report("arena overflow", checkArenaOverflow());
+		failures += report("damaged arenas", checkDamagedArenas());
+		if (failures > 0) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Processes one random stream with both implementations.
+	 * @return		Description of the first difference, null if there is none.
+	 */
+	static String compare (int windowSize, int errParam, double density, Random random) {
+		ArrayList <Bucket> legacy = new ArrayList <Bucket> ();
+		ExponentialHistogram histogram = new ExponentialHistogram(windowSize, errParam);
+		for (int i = 0; i < STREAM_LENGTH; i++) {
+			int newElement = random.nextDouble() < density ? 1 : 0;
+			legacy = SlidingWindowHistogram.updateHistogram(legacy, windowSize, newElement, errParam);
+			histogram.update(newElement);
+
+			int [][] expected = SlidingWindowHistogram.histToMultArray(legacy);
+			if (!Arrays.deepEquals(expected, histogram.toMultArray())) {
+				return "Buckets differ after element " + i + ": " + Arrays.deepToString(expected) + " / " + Arrays.deepToString(histogram.toMultArray());
+			}
+			if (!Arrays.equals(SlidingWindowHistogram.histToArray(legacy), histogram.toArray())) {
+				return "Bucket sizes differ after element " + i;
+			}
+			if (SlidingWindowHistogram.estimatedNumberOfOnes(expected) != histogram.estimatedNumberOfOnes()) {
+				return "Estimates differ after element " + i + ": " + SlidingWindowHistogram.estimatedNumberOfOnes(expected)
+						+ " / " + histogram.estimatedNumberOfOnes();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Processes one random stream with the engine only and checks that every class stays within its limit
+	 * and that the sum of the bucket sizes matches the Buckets.
+	 * @return		Description of the first violation, null if there is none.
+	 */
+	static String checkLimits (int windowSize, int errParam, double density, Random random) {
+		ExponentialHistogram histogram = new ExponentialHistogram(windowSize, errParam);
+		for (int i = 0; i < STREAM_LENGTH; i++) {
+			histogram.update(random.nextDouble() < density ? 1 : 0);
+			int [] perClass = histogram.bucketsPerClass();
+			long sum = 0;
+			for (int c = 0; c < perClass.length; c++) {
+				if (perClass[c] > (c == 0 ? errParam : errParam / 2)) {
+					return "Size class " + c + " holds " + perClass[c] + " Buckets after element " + i;
+				}
+				sum += (long) perClass[c] << c;
+			}
+			if (sum != histogram.sumOfBucketSizes()) {
+				return "Sum of the bucket sizes is " + histogram.sumOfBucketSizes() + " instead of " + sum + " after element " + i;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Prints the result of one check.
+	 * @return		1 if the check failed, otherwise 0.
+	 */
+	static int report (String name, String failure) {
+		System.out.println(name + ": " + (failure == null ? "ok" : "FAILED " + failure));
+		return failure == null ? 0 : 1;
+	}
+
+	/*----------------------------------------------------------------------------------*/
+
+	/**
+	 * Feeds random streams as single elements and as packed words of random lengths, as a long array, as a BitSet
+	 * and as a ByteBuffer; all histograms have to be equal after every chunk.
+	 * @return		Description of the first difference, null if there is none.
+	 */
+	static String checkPackedUpdates (Random random) {
+		for (int errParam = 2; errParam <= 20; errParam += 3) {
+			for (int windowSize : WINDOW_SIZES) {
+				for (double density : DENSITIES) {
+					int length = 64 * (STREAM_LENGTH / 64);
+					BitSet stream = new BitSet(length);
+					for (int i = 0; i < length; i++) {
+						stream.set(i, random.nextDouble() < density);
+					}
+					long [] words = Arrays.copyOf(stream.toLongArray(), length / 64);
+
+					ExponentialHistogram single = new ExponentialHistogram(windowSize, errParam);
+					ExponentialHistogram packed = new ExponentialHistogram(windowSize, errParam);
+					int position = 0;
+					while (position < length) {
+						int bits = Math.min(1 + random.nextInt(64), length - position);
+						long word = 0;
+						for (int i = 0; i < bits; i++) {
+							single.update(stream.get(position + i) ? 1 : 0);
+							word |= (stream.get(position + i) ? 1L : 0) << i;
+						}
+						//Bits above the number of elements must be ignored
+						packed.update(word | (bits < 64 ? random.nextLong() << bits : 0), bits);
+						position += bits;
+						if (packed.getClock() != single.getClock() || !Arrays.deepEquals(packed.toMultArray(), single.toMultArray())) {
+							return "windowSize=" + windowSize + " errParam=" + errParam + " density=" + density
+									+ ": update(long, int) differs after element " + position;
+						}
+					}
+
+					ExponentialHistogram array = new ExponentialHistogram(windowSize, errParam);
+					array.update(words, length);
+					ExponentialHistogram bitSet = new ExponentialHistogram(windowSize, errParam);
+					bitSet.update(stream, 0, length);
+					ExponentialHistogram buffer = new ExponentialHistogram(windowSize, errParam);
+					buffer.update(ByteBuffer.wrap(Arrays.copyOf(stream.toByteArray(), length / 8)));
+					for (ExponentialHistogram histogram : new ExponentialHistogram [] {array, bitSet, buffer}) {
+						if (histogram.getClock() != single.getClock() || !Arrays.deepEquals(histogram.toMultArray(), single.toMultArray())) {
+							return "windowSize=" + windowSize + " errParam=" + errParam + " density=" + density
+									+ ": a bulk update differs from the single elements";
+						}
+					}
+				}
+			}
+		}
+
+		ExponentialHistogram histogram = new ExponentialHistogram(100, 10);
+		for (int bits : new int [] {-1, 0, 65}) {
+			try {
+				histogram.update(-1L, bits);
+				return "update(long, " + bits + ") accepted";
+			} catch (IllegalArgumentException e) {
+				//expected
+			}
+		}
+		if (histogram.getClock() != 0) {
+			return "a rejected update moved the clock";
+		}
+		return null;
+	}
+
+	/**
+	 * Compares the estimates of random sub-windows with the exact number of ones among the last k elements.
+	 * @return		Description of the first violation, null if there is none.
+	 */
+	static String checkSubWindows (Random random) {
+		for (int errParam = 4; errParam <= 20; errParam += 2) {
+			double bound = HistogramConfig.relativeErrorBound(errParam);
+			for (int windowSize : WINDOW_SIZES) {
+				for (double density : DENSITIES) {
+					ExponentialHistogram histogram = new ExponentialHistogram(windowSize, errParam);
+					//Number of ones among the first i elements
+					long [] prefix = new long [STREAM_LENGTH + 1];
+					for (int i = 0; i < STREAM_LENGTH; i++) {
+						int newElement = random.nextDouble() < density ? 1 : 0;
+						histogram.update(newElement);
+						prefix[i + 1] = prefix[i] + newElement;
+
+						long [] horizons = new long [4];
+						for (int h = 0; h < horizons.length; h++) {
+							horizons[h] = 1 + random.nextInt(windowSize + 2);
+						}
+						Arrays.sort(horizons);
+						long [] estimates = new long [horizons.length];
+						histogram.estimate(horizons, estimates);
+						for (int h = 0; h < horizons.length; h++) {
+							long k = Math.min(horizons[h], windowSize);
+							long exact = prefix[i + 1] - prefix[(int) Math.max(0, i + 1 - k)];
+							long estimate = histogram.estimate(horizons[h]);
+							if (estimate != estimates[h]) {
+								return "windowSize=" + windowSize + " errParam=" + errParam + ": estimate(" + horizons[h] + ") is " + estimate
+										+ ", the bulk query " + estimates[h];
+							}
+							if (Math.abs(estimate - exact) > bound * exact) {
+								return "windowSize=" + windowSize + " errParam=" + errParam + ": estimate(" + horizons[h] + ") is " + estimate
+										+ " after element " + i + ", exact " + exact;
+							}
+						}
+					}
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Backfills random streams from a long array (on pools of parallelism 1 and 4), a ByteBuffer and a file, and compares
+	 * the histograms with processing the last window of the stream one element at a time.
+	 * @return		Description of the first difference, null if there is none.
+	 */
+	static String checkBackfill (Random random) {
+		ForkJoinPool single = new ForkJoinPool(1);
+		ForkJoinPool parallel = new ForkJoinPool(4);
+		try {
+			Path file = Files.createTempFile("backfill", ".bin");
+			try {
+				for (int errParam = 2; errParam <= 20; errParam += 3) {
+					for (int windowSize : WINDOW_SIZES) {
+						for (double density : DENSITIES) {
+							int length = 8 * (1 + random.nextInt(2 * STREAM_LENGTH / 8));
+							BitSet stream = new BitSet(length);
+							for (int i = 0; i < length; i++) {
+								stream.set(i, random.nextDouble() < density);
+							}
+							ExponentialHistogram expected = new ExponentialHistogram(windowSize, errParam);
+							expected.advanceTo(Math.max(0, length - windowSize));
+							for (int i = (int) expected.getClock(); i < length; i++) {
+								expected.update(stream.get(i) ? 1 : 0);
+							}
+
+							long [] words = Arrays.copyOf(stream.toLongArray(), (length + 63) / 64);
+							byte [] bytes = Arrays.copyOf(stream.toByteArray(), length / 8);
+							Files.write(file, bytes);
+							ExponentialHistogram [] backfilled = {
+								HistogramBackfill.backfill(words, length, windowSize, errParam, single),
+								HistogramBackfill.backfill(words, length, windowSize, errParam, parallel),
+								HistogramBackfill.backfill(ByteBuffer.wrap(bytes), windowSize, errParam, parallel),
+								HistogramBackfill.backfill(file, windowSize, errParam, parallel)
+							};
+							for (ExponentialHistogram histogram : backfilled) {
+								if (histogram.getClock() != expected.getClock() || !Arrays.deepEquals(histogram.toMultArray(), expected.toMultArray())) {
+									return "windowSize=" + windowSize + " errParam=" + errParam + " density=" + density + " length=" + length
+											+ ": " + Arrays.deepToString(histogram.toMultArray()) + " / " + Arrays.deepToString(expected.toMultArray());
+								}
+							}
+						}
+					}
+				}
+
+				//A window over several chunks of the fork/join tasks
+				int length = 5_000_000 + 64 * random.nextInt(1000) + random.nextInt(64);
+				long [] words = new long [(length + 63) / 64];
+				for (int i = 0; i < words.length; i++) {
+					words[i] = random.nextLong() & random.nextLong();
+				}
+				for (int windowSize : new int [] {1_000_003, 3_000_000}) {
+					ExponentialHistogram expected = new ExponentialHistogram(windowSize, 10);
+					expected.advanceTo(length - windowSize);
+					for (int i = length - windowSize; i < length; i++) {
+						expected.update((int) (words[i >>> 6] >>> i) & 1);
+					}
+					ExponentialHistogram histogram = HistogramBackfill.backfill(words, length, windowSize, 10, parallel);
+					if (!Arrays.deepEquals(histogram.toMultArray(), expected.toMultArray())) {
+						return "windowSize=" + windowSize + " length=" + length + ": the Buckets of a long stream differ";
+					}
+				}
+			} finally {
+				Files.delete(file);
+			}
+		} catch (IOException e) {
+			return e.toString();
+		} finally {
+			single.shutdown();
+			parallel.shutdown();
+		}
+		return null;
+	}
+
+	/**
+	 * Writes random histograms to a snapshot and reads them back, without and with a clock offset.
+	 * @return		Description of the first difference, null if there is none.
+	 */
+	static String checkSnapshotRoundTrip (Random random) {
+		try {
+			Path file = Files.createTempFile("snapshot", ".bin");
+			try {
+				for (int errParam = 2; errParam <= 20; errParam += 3) {
+					for (int windowSize : WINDOW_SIZES) {
+						ExponentialHistogram histogram = new ExponentialHistogram(windowSize, errParam);
+						for (int i = 0; i < STREAM_LENGTH; i++) {
+							histogram.update(random.nextInt(2));
+						}
+						HistogramSnapshots.write(histogram, file);
+						long offset = random.nextInt(2 * windowSize);
+						ExponentialHistogram same = HistogramSnapshots.read(file, 0);
+						ExponentialHistogram later = HistogramSnapshots.read(file, offset);
+						if (same.getClock() != histogram.getClock() || !Arrays.deepEquals(same.toMultArray(), histogram.toMultArray())) {
+							return "windowSize=" + windowSize + " errParam=" + errParam + ": restored Buckets differ";
+						}
+						histogram.advanceTo(histogram.getClock() + offset);
+						if (!Arrays.deepEquals(later.toMultArray(), histogram.toMultArray())) {
+							return "windowSize=" + windowSize + " errParam=" + errParam + ": Buckets differ after the clock offset " + offset;
+						}
+					}
+				}
+			} finally {
+				Files.delete(file);
+			}
+		} catch (IOException e) {
+			return e.toString();
+		}
+		return null;
+	}
+
+	/** Offsets of the clock and the number of Buckets in the header of a snapshot. */
+	static final int HEADER_CLOCK = 14;
+	static final int HEADER_COUNT = 22;
+	static final int HEADER_SIZE = 30;
+
+	/**
+	 * Crafts damaged snapshots of a histogram with a window of 100 elements and the error parameter 4 and reads them.
+	 * @return		Description of the first damaged file that is not rejected with an IOException, null if there is none.
+	 */
+	static String checkDamagedSnapshots () {
+		try {
+			Path file = Files.createTempFile("snapshot", ".bin");
+			try {
+				//Timestamps 10, 15 and 18 at the clock 50, from the oldest to the newest Bucket
+				byte [] valid = craft(50, new int [] {2, 1, 0}, new long [] {40, 5, 3});
+				Files.write(file, valid);
+				if (HistogramSnapshots.read(file, 0).estimatedNumberOfOnes() != 5) {
+					return "the crafted snapshot is not read correctly";
+				}
+
+				String failure = expectIOException(file, Arrays.copyOf(valid, valid.length - 1), "truncated Buckets");
+				if (failure == null) {
+					failure = expectIOException(file, Arrays.copyOf(valid, HEADER_SIZE - 1), "truncated header");
+				}
+				if (failure == null) {
+					failure = expectIOException(file, craft(50, new int [] {1, 2, 0}, new long [] {40, 5, 3}), "classes out of order");
+				}
+				if (failure == null) {
+					failure = expectIOException(file, craft(50, new int [] {2, 1, 0}, new long [] {40, 5, 100}), "timestamp after the clock");
+				}
+				if (failure == null) {
+					failure = expectIOException(file, craft(50, new int [] {2, 1, 0}, new long [] {40, 5, -3}), "decreasing timestamps");
+				}
+				if (failure == null) {
+					failure = expectIOException(file, craft(50, new int [] {2, 1, 0}, new long [] {60, 5, 3}), "negative timestamp");
+				}
+				if (failure == null) {
+					failure = expectIOException(file, craft(50, new int [] {0, 0, 0, 0, 0}, new long [] {5, 1, 1, 1, 1}), "full class");
+				}
+				if (failure == null) {
+					failure = expectIOException(file, patchInt(valid, 10, Integer.MAX_VALUE), "huge errParam");
+				}
+				if (failure == null) {
+					failure = expectIOException(file, patchInt(valid, 6, 0), "windowSize 0");
+				}
+				if (failure == null) {
+					failure = expectIOException(file, patchLong(valid, HEADER_CLOCK, -1), "negative clock");
+				}
+				if (failure == null) {
+					failure = expectIOException(file, patchLong(valid, HEADER_COUNT, 1L << 40), "too many Buckets");
+				}
+				if (failure != null) {
+					return failure;
+				}
+
+				Files.write(file, valid);
+				try {
+					HistogramSnapshots.read(file, -1);
+					return "negative clock offset accepted";
+				} catch (IllegalArgumentException e) {
+					//expected
+				}
+			} finally {
+				Files.delete(file);
+			}
+		} catch (IOException e) {
+			return e.toString();
+		}
+		return null;
+	}
+
+	/**
+	 * @return		Description of the damage, if the file is read without an IOException, otherwise null.
+	 */
+	static String expectIOException (Path file, byte [] content, String damage) throws IOException {
+		Files.write(file, content);
+		try {
+			HistogramSnapshots.read(file, 0);
+			return damage + " accepted";
+		} catch (IOException e) {
+			return null;
+		} catch (RuntimeException | Error e) {
+			return damage + " throws " + e;
+		}
+	}
+
+	/**
+	 * Builds the bytes of a snapshot from the header of an empty histogram and the given Buckets.
+	 * @param exponents	Exponents of the bucket sizes, from the oldest to the newest Bucket.
+	 * @param deltas	Age of the oldest Bucket, then the distances of the timestamps, written as unsigned numbers.
+	 */
+	static byte [] craft (long clock, int [] exponents, long [] deltas) throws IOException {
+		Path empty = Files.createTempFile("empty", ".bin");
+		byte [] header;
+		try {
+			HistogramSnapshots.write(new ExponentialHistogram(100, 4), empty);
+			header = Files.readAllBytes(empty);
+		} finally {
+			Files.delete(empty);
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + 11 * exponents.length);
+		buffer.put(header, 0, HEADER_SIZE);
+		buffer.putLong(HEADER_CLOCK, clock);
+		buffer.putLong(HEADER_COUNT, exponents.length);
+		for (int i = 0; i < exponents.length; i++) {
+			buffer.put((byte) exponents[i]);
+			long value = deltas[i];
+			while ((value & ~0x7FL) != 0) {
+				buffer.put((byte) ((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+			buffer.put((byte) value);
+		}
+		return Arrays.copyOf(buffer.array(), buffer.position());
+	}
+
+	static byte [] patchInt (byte [] content, int index, int value) {
+		byte [] patched = content.clone();
+		ByteBuffer.wrap(patched).putInt(index, value);
+		return patched;
+	}
+
+	static byte [] patchLong (byte [] content, int index, long value) {
+		byte [] patched = content.clone();
+		ByteBuffer.wrap(patched).putLong(index, value);
+		return patched;
+	}
+
+	/**
+	 * Adds ones at the same clock value to a slot of an arena with a window of 4 elements and the error parameter 2,
+	 * until the slot is full.
+	 * @return		Description of the failure, null if the slot rejects the overflowing one and the next slot is unchanged.
+	 */
+	static String checkArenaOverflow () {
+		HistogramArena arena = new HistogramArena(4, 2, 2);
+		int slot = arena.allocate();
+		int next = arena.allocate();
+		int added = 0;
+		try {
+			while (added <= 16) {
+				arena.add(slot);
+				added++;
+			}
+			return added + " ones at the same clock value accepted";
+		} catch (IllegalStateException e) {
+			//expected
+		}
+		if (arena.estimatedNumberOfOnes(next) != 0 || arena.numberOfBuckets(next) != 0) {
+			return "the next slot was overwritten after " + added + " ones";
+		}
+		return null;
+	}
+
+	/** Offsets in an arena file: the first slot after the header, the number of Buckets of class 0 in a slot. */
+	static final int ARENA_FIRST_SLOT = 64;
+	static final int ARENA_CLASS_0_COUNT = 36;
+
+	/**
+	 * Writes an arena with a window of 100 elements and the error parameter 4 to a file and opens damaged copies of it.
+	 * @return		Description of the first damaged file that is not rejected with an IOException, null if there is none.
+	 */
+	static String checkDamagedArenas () {
+		try {
+			Path file = Files.createTempFile("arena", ".bin");
+			try {
+				HistogramArena arena = HistogramArena.create(file, 100, 4, 3);
+				int slot = arena.allocate();
+				for (int i = 0; i < 50; i++) {
+					arena.update(slot, i % 3 == 0 ? 1 : 0);
+				}
+				arena.force();
+				long estimate = arena.estimatedNumberOfOnes(slot);
+				byte [] valid = Files.readAllBytes(file);
+				if (HistogramArena.open(file, true).estimatedNumberOfOnes(slot) != estimate) {
+					return "the written arena is not read correctly";
+				}
+
+				String failure = expectArenaIOException(file, Arrays.copyOf(valid, valid.length - 1), "truncated slot");
+				if (failure == null) {
+					failure = expectArenaIOException(file, Arrays.copyOf(valid, ARENA_FIRST_SLOT), "header only");
+				}
+				if (failure == null) {
+					//Class 0 holds at most errParam Buckets, one more would make the next merge write past the ring
+					ByteBuffer overflow = ByteBuffer.wrap(valid.clone()).order(ByteOrder.LITTLE_ENDIAN);
+					overflow.putInt(ARENA_FIRST_SLOT + ARENA_CLASS_0_COUNT, 5);
+					failure = expectArenaIOException(file, overflow.array(), "overflowing slot");
+				}
+				if (failure != null) {
+					return failure;
+				}
+			} finally {
+				Files.delete(file);
+			}
+		} catch (IOException e) {
+			return e.toString();
+		}
+		return null;
+	}
+
+	/**
+	 * Opens the file for writing, which must neither succeed nor change the size of the file.
+	 * @return		Description of the damage, if the file is opened without an IOException, otherwise null.
+	 */
+	static String expectArenaIOException (Path file, byte [] content, String damage) throws IOException {
+		Files.write(file, content);
+		try {
+			HistogramArena.open(file, false);
+			return damage + " accepted";
+		} catch (IOException e) {
+			return Files.size(file) == content.length ? null : damage + " changed the size of the file";
+		} catch (RuntimeException | Error e) {
+			return damage + " throws " + e;
+		}
+	}
+}
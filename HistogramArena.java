@@ -0,0 +1,554 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Arena of histograms outside of the Java heap: every histogram is a slot of fixed size in a direct or memory-mapped buffer,
+ * so millions of histograms neither enlarge the heap nor have to be traced by the garbage collector.
+ *
+ * A slot has the layout of an "ExponentialHistogram": the clock, the sum of the bucket sizes, the highest size class,
+ * the start and the number of Buckets of every class, and the rings of timestamps of all classes. The number of size classes
+ * follows from the window size (a Bucket of size 2^c contains 2^(c-1) ones that are in the window, see the class "HistogramConfig"),
+ * so the size of a slot is known up front and update, estimate and expiry work directly on the bytes of the slot
+ * with the same steps as the histogram.
+ *
+ * Slots are handed out by "allocate" and returned by "free"; the free slots form a list through the slots themselves,
+ * so a freed slot is reused by the next allocation without any search.
+ *
+ * The arena can be mapped to a file ("create" and "open"). Another process can then map the same file read-only and read the
+ * estimates of the slots while this process updates them: the estimate of a slot is published with a release store after every
+ * update, in the same way as "ExponentialHistogram.publishedEstimate". All other methods may only be called by one thread.
+ *
+ * @author Sven Winkler
+ */
+public class HistogramArena {
+
+	/** "DGIA" */
+	private static final int MAGIC = 0x44474941;
+	private static final int VERSION = 1;
+
+	/** magic, version, windowSize, errParam, numberOfClasses, slotSize, numberOfSlots, slotsPerPage, head of the free list, allocated slots */
+	private static final int HEADER_SIZE = 64;
+	private static final int HEADER_FREE_HEAD = 32;
+	private static final int HEADER_ALLOCATED = 36;
+
+	/** Offsets within a slot. The estimate comes first, so it is aligned for the release store. */
+	private static final int SLOT_ESTIMATE = 0;
+	private static final int SLOT_CLOCK = 8;
+	private static final int SLOT_TOTAL = 16;
+	private static final int SLOT_TOP_CLASS = 24;
+	private static final int SLOT_NEXT_FREE = 28;
+	private static final int SLOT_CLASSES = 32;
+
+	/** Value of the free list link of an allocated slot. */
+	private static final int ALLOCATED = -2;
+
+	/** Maximum size of one buffer; a buffer can hold at most 2 GB, so the slots are spread over several pages. */
+	private static final long PAGE_SIZE = 1L << 30;
+
+	private static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+	private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long [].class, ORDER);
+
+	private final int windowSize;
+	private final int errParam;
+	private final int numberOfClasses;
+	private final int numberOfSlots;
+
+	/** Bytes of a slot, a multiple of 8. */
+	private final int slotSize;
+	private final int slotsPerPage;
+
+	/** Offset of the rings within a slot. */
+	private final int ringsOffset;
+
+	private final ByteBuffer header;
+	private final ByteBuffer [] pages;
+
+	/**
+	 * Creates an arena in direct memory.
+	 * @param windowSize	Size of the Sliding Window of every histogram.
+	 * @param errParam	The error parameter of every histogram.
+	 * @param numberOfSlots	Maximum number of histograms at the same time.
+	 */
+	public HistogramArena (int windowSize, int errParam, int numberOfSlots) {
+		this(windowSize, errParam, numberOfSlots, null, null, false);
+	}
+
+	/**
+	 * Creates an arena in a new memory-mapped file, which is overwritten if it exists.
+	 * @param file		The file.
+	 * @param windowSize	Size of the Sliding Window of every histogram.
+	 * @param errParam	The error parameter of every histogram.
+	 * @param numberOfSlots	Maximum number of histograms at the same time.
+	 * @return		The arena, with all slots free.
+	 * @throws IOException	If the file cannot be created or mapped.
+	 */
+	public static HistogramArena create (Path file, int windowSize, int errParam, int numberOfSlots) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			return new HistogramArena(windowSize, errParam, numberOfSlots, channel, FileChannel.MapMode.READ_WRITE, false);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Maps the file of an existing arena, for example to continue it after a restart or to read it from a sidecar process.
+	 * @param file		The file, written by an arena of "create".
+	 * @param readOnly	True, if the arena is only read; its slots can then be queried, but not changed.
+	 * @return		The arena with the slots of the file.
+	 * @throws IOException	If the file cannot be mapped, is no histogram arena or is damaged.
+	 */
+	public static HistogramArena open (Path file, boolean readOnly) throws IOException {
+		FileChannel.MapMode mode = readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE;
+		try (FileChannel channel = readOnly ? FileChannel.open(file, StandardOpenOption.READ)
+				: FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			if (channel.size() < HEADER_SIZE) {
+				throw new IOException("Not a histogram arena: " + file);
+			}
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE).order(ORDER);
+			if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+				throw new IOException("Not a histogram arena: " + file);
+			}
+			//Check the size before the mapping, which would silently extend a truncated file in the mode READ_WRITE
+			int windowSize = header.getInt(8);
+			int errParam = header.getInt(12);
+			int numberOfSlots = header.getInt(24);
+			long slotSize = windowSize < 1 || errParam < 2 ? -1 : slotSize(HistogramConfig.numberOfClasses(windowSize), errParam);
+			if (numberOfSlots < 1 || slotSize != header.getInt(20) || channel.size() < HEADER_SIZE + numberOfSlots * slotSize) {
+				throw new IOException("Histogram arena is damaged: " + file);
+			}
+			HistogramArena arena = new HistogramArena(windowSize, errParam, numberOfSlots, channel, mode, true);
+			if (!arena.isConsistent()) {
+				throw new IOException("Histogram arena is damaged: " + file);
+			}
+			return arena;
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * @param channel	Channel of the file to map, null for direct memory.
+	 * @param mode		Mode of the mapping, null for direct memory.
+	 * @param existing	True, if the file already contains the arena; otherwise the header and the free list are initialized.
+	 * @throws UncheckedIOException	If the file cannot be mapped, so the public constructor needs no throws clause.
+	 */
+	private HistogramArena (int windowSize, int errParam, int numberOfSlots, FileChannel channel, FileChannel.MapMode mode, boolean existing) {
+		ExponentialHistogram.checkParameters(windowSize, errParam);
+		if (numberOfSlots < 1) {
+			throw new IllegalArgumentException("numberOfSlots must be positive: " + numberOfSlots);
+		}
+		this.windowSize = windowSize;
+		this.errParam = errParam;
+		this.numberOfSlots = numberOfSlots;
+		numberOfClasses = HistogramConfig.numberOfClasses(windowSize);
+		ringsOffset = SLOT_CLASSES + 8 * numberOfClasses;
+		slotSize = slotSize(numberOfClasses, errParam);
+		slotsPerPage = (int) Math.min(numberOfSlots, PAGE_SIZE / slotSize);
+
+		pages = new ByteBuffer [(numberOfSlots - 1) / slotsPerPage + 1];
+		if (channel == null) {
+			header = ByteBuffer.allocateDirect(HEADER_SIZE).order(ORDER);
+			for (int p = 0; p < pages.length; p++) {
+				pages[p] = ByteBuffer.allocateDirect(pageSlots(p) * slotSize).order(ORDER);
+			}
+		} else {
+			try {
+				header = channel.map(mode, 0, HEADER_SIZE).order(ORDER);
+				for (int p = 0; p < pages.length; p++) {
+					pages[p] = channel.map(mode, HEADER_SIZE + (long) p * slotsPerPage * slotSize, (long) pageSlots(p) * slotSize).order(ORDER);
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		if (!existing) {
+			header.putInt(0, MAGIC);
+			header.putInt(4, VERSION);
+			header.putInt(8, windowSize);
+			header.putInt(12, errParam);
+			header.putInt(16, numberOfClasses);
+			header.putInt(20, slotSize);
+			header.putInt(24, numberOfSlots);
+			header.putInt(28, slotsPerPage);
+			//All slots are free and linked in ascending order
+			for (int slot = 0; slot < numberOfSlots; slot++) {
+				page(slot).putInt(base(slot) + SLOT_NEXT_FREE, slot + 1 < numberOfSlots ? slot + 1 : -1);
+			}
+			header.putInt(HEADER_FREE_HEAD, 0);
+			header.putInt(HEADER_ALLOCATED, 0);
+		}
+	}
+
+	/*----------------------------------------------------------------------------------*/
+
+	/**
+	 * Takes a free slot and initializes it as an empty histogram at clock 0.
+	 * @return		Index of the slot.
+	 * @throws IllegalStateException	If all slots are allocated.
+	 */
+	public int allocate () {
+		int slot = header.getInt(HEADER_FREE_HEAD);
+		if (slot < 0) {
+			throw new IllegalStateException("All " + numberOfSlots + " slots of the arena are allocated");
+		}
+		ByteBuffer page = page(slot);
+		int base = base(slot);
+		header.putInt(HEADER_FREE_HEAD, page.getInt(base + SLOT_NEXT_FREE));
+		header.putInt(HEADER_ALLOCATED, header.getInt(HEADER_ALLOCATED) + 1);
+
+		for (int i = SLOT_CLASSES; i < ringsOffset; i += 8) {
+			page.putLong(base + i, 0);
+		}
+		page.putLong(base + SLOT_CLOCK, 0);
+		page.putLong(base + SLOT_TOTAL, 0);
+		page.putInt(base + SLOT_TOP_CLASS, -1);
+		page.putInt(base + SLOT_NEXT_FREE, ALLOCATED);
+		LONGS.setRelease(page, base + SLOT_ESTIMATE, 0L);
+		return slot;
+	}
+
+	/**
+	 * Returns a slot to the arena. It is reused by one of the next allocations.
+	 * @param slot		Index of an allocated slot.
+	 */
+	public void free (int slot) {
+		checkAllocated(slot);
+		ByteBuffer page = page(slot);
+		int base = base(slot);
+		LONGS.setRelease(page, base + SLOT_ESTIMATE, 0L);
+		page.putInt(base + SLOT_NEXT_FREE, header.getInt(HEADER_FREE_HEAD));
+		header.putInt(HEADER_FREE_HEAD, slot);
+		header.putInt(HEADER_ALLOCATED, header.getInt(HEADER_ALLOCATED) - 1);
+	}
+
+	/**
+	 * @param slot		Index of a slot.
+	 * @return		True, if the slot holds a histogram.
+	 */
+	public boolean isAllocated (int slot) {
+		return slot >= 0 && slot < numberOfSlots && page(slot).getInt(base(slot) + SLOT_NEXT_FREE) == ALLOCATED;
+	}
+
+	/**
+	 * Processes a new element in the histogram of a slot, with the steps of "ExponentialHistogram.update".
+	 * @param slot		Index of an allocated slot.
+	 * @param newElement	0 or 1.
+	 */
+	public void update (int slot, int newElement) {
+		checkAllocated(slot);
+		ByteBuffer page = page(slot);
+		int base = base(slot);
+		long clock = page.getLong(base + SLOT_CLOCK) + 1;
+		page.putLong(base + SLOT_CLOCK, clock);
+		if (newElement == 1) {
+			push(page, base, 0, clock);
+		}
+		removeExpiredBuckets(page, base, clock);
+		if (newElement == 1) {
+			mergeBuckets(page, base);
+		}
+		publish(page, base);
+	}
+
+	/**
+	 * Moves the window of a slot forward, as if only zeros had arrived in between.
+	 * @param slot		Index of an allocated slot.
+	 * @param time		New value of the clock, not smaller than the current one.
+	 */
+	public void advanceTo (int slot, long time) {
+		checkAllocated(slot);
+		ByteBuffer page = page(slot);
+		int base = base(slot);
+		long clock = page.getLong(base + SLOT_CLOCK);
+		if (time < clock) {
+			throw new IllegalArgumentException("Clock cannot move backwards from " + clock + " to " + time);
+		}
+		page.putLong(base + SLOT_CLOCK, time);
+		removeExpiredBuckets(page, base, time);
+		publish(page, base);
+	}
+
+	/**
+	 * Adds a one that arrives at the current clock value of a slot, without moving its window.
+	 * The rings of a slot are sized for windowSize ones in the window, so a run of ones at the same clock value can fill them;
+	 * a one that does not fit any more is rejected instead of overwriting the next slot.
+	 * @param slot		Index of an allocated slot.
+	 * @throws IllegalStateException	If the Buckets of all size classes are full, so the slot cannot hold another one.
+	 */
+	public void add (int slot) {
+		checkAllocated(slot);
+		ByteBuffer page = page(slot);
+		int base = base(slot);
+		//The merges of the new one reach the class c + 1 only if all classes up to c are full
+		int c = 0;
+		while (c < numberOfClasses && count(page, base, c) == limit(c)) {
+			c++;
+		}
+		if (c == numberOfClasses) {
+			throw new IllegalStateException("Slot " + slot + " cannot hold more ones in its window of " + windowSize + " elements");
+		}
+		push(page, base, 0, page.getLong(base + SLOT_CLOCK));
+		mergeBuckets(page, base);
+		publish(page, base);
+	}
+
+	/**
+	 * @param slot		Index of an allocated slot.
+	 * @return		Sum of the bucket sizes minus the half of the size of the oldest bucket.
+	 */
+	public long estimatedNumberOfOnes (int slot) {
+		checkAllocated(slot);
+		return estimate(page(slot), base(slot));
+	}
+
+	/**
+	 * Returns the estimate of a slot after its last completed update. Unlike the other methods, it may be called by any thread,
+	 * and by other processes that mapped the file of the arena, while the slot is updated.
+	 * @param slot		Index of a slot.
+	 * @return		The estimate after the last update, 0 if the slot is free.
+	 */
+	public long publishedEstimate (int slot) {
+		return (long) LONGS.getAcquire(page(slot), base(slot) + SLOT_ESTIMATE);
+	}
+
+	/**
+	 * @param slot		Index of an allocated slot.
+	 * @return		Number of elements that have arrived in the slot so far.
+	 */
+	public long getClock (int slot) {
+		checkAllocated(slot);
+		return page(slot).getLong(base(slot) + SLOT_CLOCK);
+	}
+
+	/**
+	 * @param slot		Index of an allocated slot.
+	 * @return		Number of Buckets of the histogram in the slot.
+	 */
+	public int numberOfBuckets (int slot) {
+		checkAllocated(slot);
+		ByteBuffer page = page(slot);
+		int base = base(slot);
+		int buckets = 0;
+		for (int c = 0; c < numberOfClasses; c++) {
+			buckets += count(page, base, c);
+		}
+		return buckets;
+	}
+
+	/**
+	 * Writes the changes of a mapped arena to the file (the operating system also does this on its own).
+	 */
+	public void force () {
+		if (header instanceof MappedByteBuffer && !header.isReadOnly()) {
+			((MappedByteBuffer) header).force();
+			for (ByteBuffer page : pages) {
+				((MappedByteBuffer) page).force();
+			}
+		}
+	}
+
+	/**
+	 * @return		Number of allocated slots.
+	 */
+	public int allocatedSlots () {
+		return header.getInt(HEADER_ALLOCATED);
+	}
+
+	public int getNumberOfSlots () {
+		return numberOfSlots;
+	}
+
+	/**
+	 * @return		Bytes of one slot.
+	 */
+	public int getSlotSize () {
+		return slotSize;
+	}
+
+	/**
+	 * Off-heap memory of the arena (header and all slots); the heap only holds the few buffer objects.
+	 * @return		Number of bytes.
+	 */
+	public long memoryInBytes () {
+		return fileSize();
+	}
+
+	public int getWindowSize () {
+		return windowSize;
+	}
+
+	public int getErrParam () {
+		return errParam;
+	}
+
+	/*----------------------------------------------------------------------------------*/
+
+	private long fileSize () {
+		return HEADER_SIZE + (long) numberOfSlots * slotSize;
+	}
+
+	/**
+	 * @return		Bytes of a slot with the given number of size classes: the class table and the rings of all classes.
+	 */
+	private static int slotSize (int numberOfClasses, int errParam) {
+		return SLOT_CLASSES + 8 * numberOfClasses + 8 * offset(numberOfClasses, errParam);
+	}
+
+	/**
+	 * Checks the free list and the class tables of all slots of an opened file, so that a damaged slot cannot make
+	 * "add" or "update" write past its rings into the next slot.
+	 * @return		True, if every value is within its range.
+	 */
+	private boolean isConsistent () {
+		int freeHead = header.getInt(HEADER_FREE_HEAD);
+		int allocated = header.getInt(HEADER_ALLOCATED);
+		if (freeHead < -1 || freeHead >= numberOfSlots || allocated < 0 || allocated > numberOfSlots) {
+			return false;
+		}
+		int allocatedSlots = 0;
+		for (int slot = 0; slot < numberOfSlots; slot++) {
+			ByteBuffer page = page(slot);
+			int base = base(slot);
+			int next = page.getInt(base + SLOT_NEXT_FREE);
+			if (next != ALLOCATED) {
+				if (next < -1 || next >= numberOfSlots) {
+					return false;
+				}
+				continue;
+			}
+			allocatedSlots++;
+			int topClass = page.getInt(base + SLOT_TOP_CLASS);
+			if (topClass < -1 || topClass >= numberOfClasses || (topClass >= 0 && count(page, base, topClass) == 0)) {
+				return false;
+			}
+			for (int c = 0; c < numberOfClasses; c++) {
+				int count = count(page, base, c);
+				int first = first(page, base, c);
+				if (count < 0 || count > limit(c) || first < 0 || first > limit(c) || (c > topClass && count > 0)) {
+					return false;
+				}
+			}
+		}
+		return allocatedSlots == allocated;
+	}
+
+	private int pageSlots (int p) {
+		return Math.min(slotsPerPage, numberOfSlots - p * slotsPerPage);
+	}
+
+	private ByteBuffer page (int slot) {
+		return pages[slot / slotsPerPage];
+	}
+
+	private int base (int slot) {
+		return (slot % slotsPerPage) * slotSize;
+	}
+
+	private void checkAllocated (int slot) {
+		if (!isAllocated(slot)) {
+			throw new IllegalArgumentException("Slot is not allocated: " + slot);
+		}
+	}
+
+	private void publish (ByteBuffer page, int base) {
+		LONGS.setRelease(page, base + SLOT_ESTIMATE, estimate(page, base));
+	}
+
+	private static long estimate (ByteBuffer page, int base) {
+		int topClass = page.getInt(base + SLOT_TOP_CLASS);
+		return topClass < 0 ? 0 : page.getLong(base + SLOT_TOTAL) - (1L << topClass) / 2;
+	}
+
+	/**
+	 * Removes the oldest Buckets of a slot as long as their timestamp is expired, as "ExponentialHistogram" does.
+	 */
+	private void removeExpiredBuckets (ByteBuffer page, int base, long clock) {
+		int topClass = page.getInt(base + SLOT_TOP_CLASS);
+		while (topClass >= 0 && clock - timestampAt(page, base, topClass, 0) >= windowSize) {
+			popOldest(page, base, topClass);
+			while (topClass >= 0 && count(page, base, topClass) == 0) {
+				topClass--;
+			}
+		}
+		page.putInt(base + SLOT_TOP_CLASS, topClass);
+	}
+
+	/**
+	 * Merges the two oldest Buckets of the lowest overflowing class of a slot, as "ExponentialHistogram" does.
+	 * The slot has a ring for every class that windowSize ones can fill, so the cascade of "update" (at most one one
+	 * per step) stays within the rings; "add" checks before the push that a class with free space is reached.
+	 */
+	private void mergeBuckets (ByteBuffer page, int base) {
+		int c = 0;
+		while (count(page, base, c) > limit(c)) {
+			popOldest(page, base, c);
+			long timestamp = popOldest(page, base, c);
+			push(page, base, c + 1, timestamp);
+			c++;
+		}
+	}
+
+	private int limit (int sizeClass) {
+		return sizeClass == 0 ? errParam : errParam / 2;
+	}
+
+	private int offset (int sizeClass) {
+		return offset(sizeClass, errParam);
+	}
+
+	/**
+	 * @return		Index of the first entry of the ring of a size class among the rings of a slot.
+	 */
+	private static int offset (int sizeClass, int errParam) {
+		return sizeClass == 0 ? 0 : errParam + 1 + (sizeClass - 1) * (errParam / 2 + 1);
+	}
+
+	private static int first (ByteBuffer page, int base, int sizeClass) {
+		return page.getInt(base + SLOT_CLASSES + 8 * sizeClass);
+	}
+
+	private static int count (ByteBuffer page, int base, int sizeClass) {
+		return page.getInt(base + SLOT_CLASSES + 8 * sizeClass + 4);
+	}
+
+	private long timestampAt (ByteBuffer page, int base, int sizeClass, int i) {
+		int index = first(page, base, sizeClass) + i;
+		if (index > limit(sizeClass)) {
+			index -= limit(sizeClass) + 1;
+		}
+		return page.getLong(base + ringsOffset + 8 * (offset(sizeClass) + index));
+	}
+
+	private void push (ByteBuffer page, int base, int sizeClass, long timestamp) {
+		int count = count(page, base, sizeClass);
+		int index = first(page, base, sizeClass) + count;
+		if (index > limit(sizeClass)) {
+			index -= limit(sizeClass) + 1;
+		}
+		page.putLong(base + ringsOffset + 8 * (offset(sizeClass) + index), timestamp);
+		page.putInt(base + SLOT_CLASSES + 8 * sizeClass + 4, count + 1);
+		page.putLong(base + SLOT_TOTAL, page.getLong(base + SLOT_TOTAL) + (1L << sizeClass));
+		if (sizeClass > page.getInt(base + SLOT_TOP_CLASS)) {
+			page.putInt(base + SLOT_TOP_CLASS, sizeClass);
+		}
+	}
+
+	private long popOldest (ByteBuffer page, int base, int sizeClass) {
+		int first = first(page, base, sizeClass);
+		long timestamp = page.getLong(base + ringsOffset + 8 * (offset(sizeClass) + first));
+		page.putInt(base + SLOT_CLASSES + 8 * sizeClass, first == limit(sizeClass) ? 0 : first + 1);
+		page.putInt(base + SLOT_CLASSES + 8 * sizeClass + 4, count(page, base, sizeClass) - 1);
+		page.putLong(base + SLOT_TOTAL, page.getLong(base + SLOT_TOTAL) - (1L << sizeClass));
+		return timestamp;
+	}
+}
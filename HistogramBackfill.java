@@ -0,0 +1,355 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Builds a histogram from a long recorded stream at once, for example to rebuild the counters from stored event logs on a cold start.
+ *
+ * Only the last windowSize elements of the stream can be in the window, so only this tail is read. Processed one by one from
+ * an empty histogram, no Bucket of the tail expires, and then the Buckets only depend on the number of ones n and on the positions
+ * of some of them: class c receives m(c) Buckets (m(0) = n), merges the oldest pairs whenever it exceeds its limit L(c),
+ * which happens e(c) = 1 + (m(c) - L(c) - 1) / 2 times for m(c) > L(c), and passes them on as m(c+1) = e(c).
+ * The j-th Bucket of class c ends at the (j * 2^c)-th one, and class c keeps its Buckets 2e(c)+1 to m(c).
+ *
+ * The backfill therefore works in three steps:
+ * 1. the ones of the tail are counted in chunks in parallel on a fork/join pool,
+ * 2. the ranks of the newest ones of all Buckets are computed from n, with O(errParam * log n) work,
+ * 3. the positions of these ranks are looked up in parallel, each chunk in one pass, using the counts of the chunks.
+ *
+ * The result is exactly the histogram of processing the tail with "update", so the normal error bound of errParam holds.
+ * It differs from a histogram that processed the whole stream only in the Buckets that overlap the start of the window,
+ * which makes its estimate more precise: the sum of the bucket sizes is the exact number of ones in the window.
+ *
+ * @author Sven Winkler
+ */
+public class HistogramBackfill {
+
+	/** Number of words of a chunk (2^20 elements). */
+	private static final int CHUNK_WORDS = 1 << 14;
+
+	/** Number of chunks up to which a task works itself instead of splitting. */
+	private static final int SEQUENTIAL_THRESHOLD = 4;
+
+	/**
+	 * Packed elements of the tail: word i holds the elements 64 * i to 64 * i + 63, counted from the first word of the tail.
+	 */
+	private interface Words {
+		long word (long i);
+	}
+
+	/**
+	 * Builds a histogram from packed elements in the common fork/join pool.
+	 * @param words		Packed elements in the bit order of "BitSet", as for "ExponentialHistogram.update(long[], long)".
+	 * @param numberOfBits	Number of elements of the stream.
+	 * @param windowSize	Size of the Sliding Window.
+	 * @param errParam	The error parameter.
+	 * @return		Histogram at the clock value numberOfBits.
+	 */
+	public static ExponentialHistogram backfill (long [] words, long numberOfBits, int windowSize, int errParam) {
+		return backfill(words, numberOfBits, windowSize, errParam, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Builds a histogram from packed elements in the given fork/join pool.
+	 * @param words		Packed elements in the bit order of "BitSet".
+	 * @param numberOfBits	Number of elements of the stream, at most 64 times the length of the array.
+	 * @param windowSize	Size of the Sliding Window.
+	 * @param errParam	The error parameter.
+	 * @param pool		Pool that counts and finds the ones.
+	 * @return		Histogram at the clock value numberOfBits.
+	 */
+	public static ExponentialHistogram backfill (long [] words, long numberOfBits, int windowSize, int errParam, ForkJoinPool pool) {
+		if (numberOfBits < 0 || numberOfBits > 64L * words.length) {
+			throw new IllegalArgumentException("Invalid number of elements: " + numberOfBits);
+		}
+		long from = Math.max(0, numberOfBits - windowSize);
+		int firstWord = (int) (from >>> 6);
+		return backfill(i -> words[(int) (firstWord + i)], from, numberOfBits, windowSize, errParam, pool);
+	}
+
+	/**
+	 * Builds a histogram from the remaining bytes of a buffer in the packed format (8 elements per byte, the lowest bit first,
+	 * see the class "InputStreamElementSource") in the common fork/join pool.
+	 * @param buffer	Packed elements; the position of the buffer is not changed.
+	 * @param windowSize	Size of the Sliding Window.
+	 * @param errParam	The error parameter.
+	 * @return		Histogram at the clock value 8 * buffer.remaining().
+	 */
+	public static ExponentialHistogram backfill (ByteBuffer buffer, int windowSize, int errParam) {
+		return backfill(buffer, windowSize, errParam, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Builds a histogram from the remaining bytes of a buffer in the packed format in the given fork/join pool.
+	 * @param buffer	Packed elements; the position of the buffer is not changed.
+	 * @param windowSize	Size of the Sliding Window.
+	 * @param errParam	The error parameter.
+	 * @param pool		Pool that counts and finds the ones.
+	 * @return		Histogram at the clock value 8 * buffer.remaining().
+	 */
+	public static ExponentialHistogram backfill (ByteBuffer buffer, int windowSize, int errParam, ForkJoinPool pool) {
+		return backfill(buffer.slice(), 0, 8L * buffer.remaining(), windowSize, errParam, pool);
+	}
+
+	/**
+	 * Builds a histogram from a file in the packed format, for example one written with "--record" (see the class "StreamRunner").
+	 * Only the tail of the file that falls into the window is mapped and read.
+	 * @param file		The file.
+	 * @param windowSize	Size of the Sliding Window.
+	 * @param errParam	The error parameter.
+	 * @return		Histogram at the clock value 8 * size of the file.
+	 * @throws IOException	If the file cannot be read.
+	 */
+	public static ExponentialHistogram backfill (Path file, int windowSize, int errParam) throws IOException {
+		return backfill(file, windowSize, errParam, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Builds a histogram from a file in the packed format in the given fork/join pool.
+	 * @param file		The file.
+	 * @param windowSize	Size of the Sliding Window.
+	 * @param errParam	The error parameter.
+	 * @param pool		Pool that counts and finds the ones.
+	 * @return		Histogram at the clock value 8 * size of the file.
+	 * @throws IOException	If the file cannot be read.
+	 */
+	public static ExponentialHistogram backfill (Path file, int windowSize, int errParam, ForkJoinPool pool) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			//Map whole words from the word that contains the first element of the window, so the word boundaries stay the same
+			long tailBytes = Math.min(size, ((long) windowSize + 7) / 8 + 8);
+			long start = (size - tailBytes) & ~7L;
+			return backfill(channel.map(FileChannel.MapMode.READ_ONLY, start, size - start), 8 * start, 8 * size, windowSize, errParam, pool);
+		}
+	}
+
+	/*----------------------------------------------------------------------------------*/
+
+	/**
+	 * @param buffer	Packed elements from the element "offset" of the stream to its end.
+	 * @param offset	Index of the first element of the buffer in the stream, a multiple of 64.
+	 * @param numberOfBits	Number of elements of the stream.
+	 */
+	private static ExponentialHistogram backfill (ByteBuffer buffer, long offset, long numberOfBits, int windowSize, int errParam, ForkJoinPool pool) {
+		long from = Math.max(0, numberOfBits - windowSize);
+		ByteBuffer bytes = buffer.order(ByteOrder.LITTLE_ENDIAN);
+		int firstByte = (int) (((from & ~63L) - offset) >>> 3);
+		return backfill(i -> {
+			int index = firstByte + 8 * (int) i;
+			if (index + 8 <= bytes.limit()) {
+				return bytes.getLong(index);
+			}
+			//Last word of a buffer whose length is not a multiple of 8
+			long word = 0;
+			for (int b = 0; index + b < bytes.limit(); b++) {
+				word |= (bytes.get(index + b) & 0xFFL) << (8 * b);
+			}
+			return word;
+		}, from, numberOfBits, windowSize, errParam, pool);
+	}
+
+	/**
+	 * @param words		Words of the tail, starting with the word that contains the element "from".
+	 * @param from		Index of the first element of the window in the stream.
+	 * @param to		Number of elements of the stream.
+	 */
+	private static ExponentialHistogram backfill (Words words, long from, long to, int windowSize, int errParam, ForkJoinPool pool) {
+		ExponentialHistogram.checkParameters(windowSize, errParam);
+		long firstBit = from & ~63L;
+		int skipped = (int) (from - firstBit);
+		long numberOfWords = (to - firstBit + 63) >>> 6;
+		Tail tail = new Tail(words, skipped, to - firstBit, numberOfWords);
+
+		//1. Ones per chunk and their prefix sums
+		int numberOfChunks = (int) ((numberOfWords + CHUNK_WORDS - 1) / CHUNK_WORDS);
+		long [] ones = new long [numberOfChunks + 1];
+		pool.invoke(new CountTask(tail, ones, 0, numberOfChunks));
+		for (int chunk = 0; chunk < numberOfChunks; chunk++) {
+			ones[chunk + 1] += ones[chunk];
+		}
+
+		//2. Ranks of the newest ones of all Buckets, the oldest Bucket first
+		int numberOfBuckets = 0;
+		long arrivals = ones[numberOfChunks];
+		int c = 0;
+		long [] kept = new long [64];
+		long [] merges = new long [64];
+		while (arrivals > 0) {
+			int limit = c == 0 ? errParam : errParam / 2;
+			merges[c] = arrivals > limit ? 1 + (arrivals - limit - 1) / 2 : 0;
+			kept[c] = arrivals;
+			arrivals = merges[c];
+			c++;
+		}
+		for (int k = c - 1; k >= 0; k--) {
+			numberOfBuckets += (int) (kept[k] - 2 * merges[k]);
+		}
+		long [] ranks = new long [numberOfBuckets];
+		int [] exponents = new int [numberOfBuckets];
+		int bucket = 0;
+		for (int k = c - 1; k >= 0; k--) {
+			for (long j = 2 * merges[k] + 1; j <= kept[k]; j++) {
+				ranks[bucket] = j << k;
+				exponents[bucket] = k;
+				bucket++;
+			}
+		}
+
+		//3. Positions of the ranks; the ranks are ascending, so every chunk gets a contiguous range of them
+		long [] timestamps = new long [numberOfBuckets];
+		pool.invoke(new SelectTask(tail, ones, ranks, timestamps, 0, numberOfChunks));
+
+		ExponentialHistogram histogram = new ExponentialHistogram(windowSize, errParam);
+		for (int i = 0; i < numberOfBuckets; i++) {
+			histogram.appendBucket(firstBit + timestamps[i], exponents[i]);
+		}
+		histogram.advanceTo(to);
+		return histogram;
+	}
+
+	/**
+	 * The words of the tail, with the elements before the window and after the end of the stream masked out.
+	 */
+	private static final class Tail {
+		final Words words;
+		final int skipped;
+		final long length;
+		final long numberOfWords;
+
+		Tail (Words words, int skipped, long length, long numberOfWords) {
+			this.words = words;
+			this.skipped = skipped;
+			this.length = length;
+			this.numberOfWords = numberOfWords;
+		}
+
+		long word (long i) {
+			long word = words.word(i);
+			if (i == 0) {
+				word &= -1L << skipped;
+			}
+			if (i == numberOfWords - 1 && (length & 63) != 0) {
+				word &= -1L >>> (64 - (length & 63));
+			}
+			return word;
+		}
+	}
+
+	/**
+	 * Counts the ones of a range of chunks into ones[chunk + 1].
+	 */
+	private static final class CountTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final Tail tail;
+		private final long [] ones;
+		private final int from;
+		private final int to;
+
+		CountTask (Tail tail, long [] ones, int from, int to) {
+			this.tail = tail;
+			this.ones = ones;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute () {
+			if (to - from <= SEQUENTIAL_THRESHOLD) {
+				for (int chunk = from; chunk < to; chunk++) {
+					long end = Math.min(tail.numberOfWords, (long) (chunk + 1) * CHUNK_WORDS);
+					long count = 0;
+					for (long i = (long) chunk * CHUNK_WORDS; i < end; i++) {
+						count += Long.bitCount(tail.word(i));
+					}
+					ones[chunk + 1] = count;
+				}
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new CountTask(tail, ones, from, middle), new CountTask(tail, ones, middle, to));
+		}
+	}
+
+	/**
+	 * Finds the positions of the ranks that fall into a range of chunks. A position is stored as the clock value
+	 * at which the one arrived, relative to the first word of the tail.
+	 */
+	private static final class SelectTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final Tail tail;
+		private final long [] ones;
+		private final long [] ranks;
+		private final long [] timestamps;
+		private final int from;
+		private final int to;
+
+		SelectTask (Tail tail, long [] ones, long [] ranks, long [] timestamps, int from, int to) {
+			this.tail = tail;
+			this.ones = ones;
+			this.ranks = ranks;
+			this.timestamps = timestamps;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute () {
+			if (to - from <= SEQUENTIAL_THRESHOLD) {
+				for (int chunk = from; chunk < to; chunk++) {
+					select(chunk);
+				}
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new SelectTask(tail, ones, ranks, timestamps, from, middle), new SelectTask(tail, ones, ranks, timestamps, middle, to));
+		}
+
+		private void select (int chunk) {
+			//First rank in the chunk
+			int r = firstRankAbove(ones[chunk]);
+			if (r == ranks.length || ranks[r] > ones[chunk + 1]) {
+				return;
+			}
+			long seen = ones[chunk];
+			long end = Math.min(tail.numberOfWords, (long) (chunk + 1) * CHUNK_WORDS);
+			for (long i = (long) chunk * CHUNK_WORDS; i < end && r < ranks.length; i++) {
+				long word = tail.word(i);
+				int count = Long.bitCount(word);
+				//All ranks within this word
+				while (r < ranks.length && ranks[r] <= seen + count) {
+					long w = word;
+					for (long k = ranks[r] - seen; k > 1; k--) {
+						w &= w - 1;
+					}
+					timestamps[r] = 64 * i + Long.numberOfTrailingZeros(w) + 1;
+					r++;
+				}
+				seen += count;
+			}
+		}
+
+		/**
+		 * @return		Index of the first rank that is greater than the given number of ones.
+		 */
+		private int firstRankAbove (long seen) {
+			int low = 0;
+			int high = ranks.length;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (ranks[middle] <= seen) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+			return low;
+		}
+	}
+}
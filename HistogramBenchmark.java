@@ -0,0 +1,287 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+/**
+ * Benchmark of the hot paths of the algorithm, without any library: every operation is warmed up and then measured for a fixed time.
+ * For every measurement the time per operation and the allocated bytes per operation (like the GC profiler of JMH) are recorded.
+ * It is a quick check without a build; the JMH benchmarks of the module "jmh" measure the same paths with forks and warmup control.
+ * Filling the ArrayList histogram of "SlidingWindowHistogram" with two windows takes a few minutes for a window of 10^7.
+ *
+ * The results are written as CSV (benchmark, windowSize, errParam, nanosPerOp, opsPerSecond, bytesPerOp),
+ * so that the results of two releases can be compared by a script.
+ *
+ * Usage: java HistogramBenchmark [output file] [measurement time in ms]
+ *
+ * @author Sven Winkler
+ */
+public class HistogramBenchmark {
+
+	/** Window sizes of the benchmark, 10^2 to 10^7. */
+	static final int [] WINDOW_SIZES = {100, 1_000, 10_000, 100_000, 1_000_000, 10_000_000};
+	static final int [] ERR_PARAMS = {4, 10, 50};
+
+	/** Pre-generated random elements, so the generator is not part of the measurement. */
+	static final long [] BITS = randomBits(1 << 16, 42);
+
+	/** Results are added to this field, so the JIT compiler cannot remove the measured code. */
+	static volatile long sink;
+
+	static long measurementNanos = 500_000_000L;
+
+	/**
+	 * An operation that is measured. It is executed a number of times in a row.
+	 */
+	interface Operation {
+		/**
+		 * @param iterations	Number of executions.
+		 * @return		Some value that depends on the results, for the sink.
+		 */
+		long run (long iterations);
+	}
+
+	/**
+	 * Result of one measurement.
+	 */
+	static final class Result {
+		final String benchmark;
+		final int windowSize;
+		final int errParam;
+		final double nanosPerOp;
+		final double bytesPerOp;
+
+		Result (String benchmark, int windowSize, int errParam, double nanosPerOp, double bytesPerOp) {
+			this.benchmark = benchmark;
+			this.windowSize = windowSize;
+			this.errParam = errParam;
+			this.nanosPerOp = nanosPerOp;
+			this.bytesPerOp = bytesPerOp;
+		}
+
+		String toCsv () {
+			return String.format(Locale.ROOT, "%s,%d,%d,%.3f,%.0f,%.3f", benchmark, windowSize, errParam, nanosPerOp, 1e9 / nanosPerOp, bytesPerOp);
+		}
+	}
+
+	public static void main (String[] args) throws IOException {
+		Path output = Paths.get(args.length > 0 ? args[0] : "benchmark-results.csv");
+		if (args.length > 1) {
+			measurementNanos = Long.parseLong(args[1]) * 1_000_000L;
+		}
+
+		List <Result> results = new ArrayList <Result> ();
+		for (int windowSize : WINDOW_SIZES) {
+			for (int errParam : ERR_PARAMS) {
+				results.add(benchmarkUpdate(windowSize, errParam));
+				results.add(benchmarkWordUpdate(windowSize, errParam));
+				results.add(benchmarkEstimate(windowSize, errParam));
+				results.add(benchmarkLegacyUpdate(windowSize, errParam));
+				results.add(benchmarkLegacyEstimate(windowSize, errParam));
+			}
+			results.add(benchmarkUpdateWindow(windowSize));
+			results.add(benchmarkExactSumOfOnes(windowSize));
+			results.add(benchmarkExactWindowCounter(windowSize));
+		}
+
+		write(output, results);
+	}
+
+	/*----------------------------------------------------------------------------------*/
+
+	static Result benchmarkUpdate (int windowSize, int errParam) {
+		ExponentialHistogram histogram = filledHistogram(windowSize, errParam);
+		return measure("ExponentialHistogram.update", windowSize, errParam, new Operation() {
+			long position = histogram.getClock();
+			public long run (long iterations) {
+				for (long i = 0; i < iterations; i++) {
+					histogram.update(bit(position++));
+				}
+				return histogram.numberOfBuckets();
+			}
+		});
+	}
+
+	/**
+	 * One operation processes 64 elements.
+	 */
+	static Result benchmarkWordUpdate (int windowSize, int errParam) {
+		ExponentialHistogram histogram = filledHistogram(windowSize, errParam);
+		return measure("ExponentialHistogram.update(long,64)", windowSize, errParam, new Operation() {
+			int position;
+			public long run (long iterations) {
+				for (long i = 0; i < iterations; i++) {
+					histogram.update(BITS[position++ & (BITS.length - 1)], 64);
+				}
+				return histogram.numberOfBuckets();
+			}
+		});
+	}
+
+	static Result benchmarkEstimate (int windowSize, int errParam) {
+		ExponentialHistogram histogram = filledHistogram(windowSize, errParam);
+		return measure("ExponentialHistogram.estimatedNumberOfOnes", windowSize, errParam, iterations -> {
+			long sum = 0;
+			for (long i = 0; i < iterations; i++) {
+				sum += histogram.estimatedNumberOfOnes();
+			}
+			return sum;
+		});
+	}
+
+	static Result benchmarkLegacyUpdate (int windowSize, int errParam) {
+		ArrayList <Bucket> histogram = new ArrayList <Bucket> ();
+		for (int i = 0; i < 2 * windowSize; i++) {
+			SlidingWindowHistogram.updateHistogram(histogram, windowSize, bit(i), errParam);
+		}
+		return measure("SlidingWindowHistogram.updateHistogram", windowSize, errParam, new Operation() {
+			long position = 2 * windowSize;
+			public long run (long iterations) {
+				for (long i = 0; i < iterations; i++) {
+					SlidingWindowHistogram.updateHistogram(histogram, windowSize, bit(position++), errParam);
+				}
+				return histogram.size();
+			}
+		});
+	}
+
+	static Result benchmarkLegacyEstimate (int windowSize, int errParam) {
+		ArrayList <Bucket> histogram = new ArrayList <Bucket> ();
+		for (int i = 0; i < 2 * windowSize; i++) {
+			SlidingWindowHistogram.updateHistogram(histogram, windowSize, bit(i), errParam);
+		}
+		return measure("SlidingWindowHistogram.estimatedNumberOfOnes", windowSize, errParam, iterations -> {
+			long sum = 0;
+			for (long i = 0; i < iterations; i++) {
+				sum += SlidingWindowHistogram.estimatedNumberOfOnes(SlidingWindowHistogram.histToMultArray(histogram));
+			}
+			return sum;
+		});
+	}
+
+	static Result benchmarkUpdateWindow (int windowSize) {
+		return measure("SlidingWindow.updateWindow", windowSize, 0, new Operation() {
+			int [] window = SlidingWindow.initialWindow(windowSize);
+			long position;
+			public long run (long iterations) {
+				for (long i = 0; i < iterations; i++) {
+					window = SlidingWindow.updateWindow(windowSize, window, bit(position++));
+				}
+				return window[0];
+			}
+		});
+	}
+
+	static Result benchmarkExactSumOfOnes (int windowSize) {
+		int [] window = SlidingWindow.initialWindow(windowSize);
+		for (int i = 0; i < windowSize; i++) {
+			window[i] = bit(i);
+		}
+		return measure("SlidingWindow.exactSumOfOnes", windowSize, 0, iterations -> {
+			long sum = 0;
+			for (long i = 0; i < iterations; i++) {
+				sum += SlidingWindow.exactSumOfOnes(window);
+			}
+			return sum;
+		});
+	}
+
+	/**
+	 * One operation is an update followed by a query, the work of one step in shadow mode.
+	 */
+	static Result benchmarkExactWindowCounter (int windowSize) {
+		ExactWindowCounter window = new ExactWindowCounter(windowSize);
+		return measure("ExactWindowCounter.update+exactSumOfOnes", windowSize, 0, new Operation() {
+			long position;
+			public long run (long iterations) {
+				long sum = 0;
+				for (long i = 0; i < iterations; i++) {
+					window.update(bit(position++));
+					sum += window.exactSumOfOnes();
+				}
+				return sum;
+			}
+		});
+	}
+
+	/*----------------------------------------------------------------------------------*/
+
+	/**
+	 * Warms an operation up and measures it. The number of iterations per run is doubled until a run takes a quarter of the
+	 * measurement time, then the operation is warmed up and measured for the measurement time each, in runs of a quarter of that size.
+	 * @param benchmark	Name of the benchmark.
+	 * @param windowSize	Window size of the benchmark, for the result.
+	 * @param errParam	Error parameter of the benchmark, for the result (0 if there is none).
+	 * @param operation	The measured operation.
+	 * @return		Time and allocated memory per operation.
+	 */
+	static Result measure (String benchmark, int windowSize, int errParam, Operation operation) {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+
+		//Calibration and warmup
+		long iterations = 1;
+		long elapsed = 0;
+		while (elapsed < measurementNanos / 4) {
+			long start = System.nanoTime();
+			sink += operation.run(iterations);
+			elapsed = System.nanoTime() - start;
+			iterations *= 2;
+		}
+		long warmupEnd = System.nanoTime() + measurementNanos;
+		while (System.nanoTime() < warmupEnd) {
+			sink += operation.run(iterations / 4 + 1);
+		}
+
+		//Measurement
+		long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+		long start = System.nanoTime();
+		long total = 0;
+		do {
+			sink += operation.run(iterations / 4 + 1);
+			total += iterations / 4 + 1;
+		} while (System.nanoTime() - start < measurementNanos);
+		elapsed = System.nanoTime() - start;
+		long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+		Result result = new Result(benchmark, windowSize, errParam, (double) elapsed / total, (double) allocated / total);
+		System.out.println(result.toCsv());
+		return result;
+	}
+
+	static void write (Path output, List <Result> results) throws IOException {
+		try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(output))) {
+			writer.println("benchmark,windowSize,errParam,nanosPerOp,opsPerSecond,bytesPerOp");
+			for (Result result : results) {
+				writer.println(result.toCsv());
+			}
+		}
+	}
+
+	static ExponentialHistogram filledHistogram (int windowSize, int errParam) {
+		ExponentialHistogram histogram = new ExponentialHistogram(windowSize, errParam);
+		for (int i = 0; i < 2 * windowSize; i++) {
+			histogram.update(bit(i));
+		}
+		return histogram;
+	}
+
+	static int bit (long position) {
+		return (int) (BITS[(int) (position >>> 6) & (BITS.length - 1)] >>> position) & 1;
+	}
+
+	static long [] randomBits (int words, long seed) {
+		SplittableRandom random = new SplittableRandom(seed);
+		long [] bits = new long [words];
+		for (int i = 0; i < words; i++) {
+			bits[i] = random.nextLong();
+		}
+		return bits;
+	}
+}
@@ -0,0 +1,256 @@
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+
+/**
+ * Columnar copy of a group of histograms for queries across many keys: the keys, the sums of the bucket sizes and the sizes
+ * of the oldest Buckets are held in three primitive arrays, so an estimate is total - oldest/2 at the same index of two arrays.
+ * Bulk estimates, threshold queries and top-k queries run over the columns in tight loops.
+ *
+ * If the class "VectorColumnKernels" (see the directory "vector") is on the class path and the module "jdk.incubator.vector"
+ * is added, the loops use the Vector API; otherwise scalar loops are used, which the JIT compiler may still vectorize.
+ *
+ * The columns are a snapshot: they are filled by "load" and do not change when the histograms are updated afterwards.
+ *
+ * @author Sven Winkler
+ */
+public class HistogramColumns {
+
+	private static final MethodHandle VECTOR_ESTIMATES;
+	private static final MethodHandle VECTOR_SELECT_ABOVE;
+	static {
+		MethodHandle estimates = null;
+		MethodHandle selectAbove = null;
+		try {
+			Class <?> kernels = Class.forName("VectorColumnKernels");
+			MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+			estimates = lookup.findStatic(kernels, "estimates",
+					MethodType.methodType(void.class, long [].class, long [].class, long [].class, int.class));
+			selectAbove = lookup.findStatic(kernels, "selectAbove",
+					MethodType.methodType(int.class, long [].class, long [].class, long.class, int [].class, int.class));
+			//Run the kernel once, so a missing module fails here and not in the first query
+			estimates.invokeExact(new long [1], new long [1], new long [1], 1);
+		} catch (Throwable e) {
+			estimates = null;
+			selectAbove = null;
+		}
+		VECTOR_ESTIMATES = estimates;
+		VECTOR_SELECT_ABOVE = selectAbove;
+	}
+
+	private long [] keys;
+	private long [] totals;
+	private long [] oldestSizes;
+	private int size;
+
+	/** Scratch column for the estimates of "topK". */
+	private long [] estimates;
+
+	public HistogramColumns () {
+		this(16);
+	}
+
+	/**
+	 * @param initialCapacity	Number of histograms that fit into the columns before they have to grow.
+	 */
+	public HistogramColumns (int initialCapacity) {
+		int capacity = Math.max(initialCapacity, 1);
+		keys = new long [capacity];
+		totals = new long [capacity];
+		oldestSizes = new long [capacity];
+		estimates = new long [0];
+	}
+
+	/**
+	 * Replaces the columns by the histograms of all keys of a store at the current clock of the store.
+	 * @param store		The store.
+	 */
+	public void load (KeyedHistogramStore store) {
+		clear();
+		ensureCapacity(store.size());
+		long clock = store.getClock();
+		for (int slot = 0; slot < store.capacity(); slot++) {
+			ExponentialHistogram histogram = store.histogramAt(slot);
+			if (histogram != null) {
+				histogram.advanceTo(clock);
+				add(store.keyAt(slot), histogram);
+			}
+		}
+	}
+
+	/**
+	 * Appends one histogram at its current clock value.
+	 * @param key		Key of the histogram.
+	 * @param histogram	The histogram.
+	 */
+	public void add (long key, ExponentialHistogram histogram) {
+		ensureCapacity(size + 1);
+		keys[size] = key;
+		totals[size] = histogram.sumOfBucketSizes();
+		oldestSizes[size] = histogram.oldestBucketSize();
+		size++;
+	}
+
+	public void clear () {
+		size = 0;
+	}
+
+	/**
+	 * @return		Number of histograms in the columns.
+	 */
+	public int size () {
+		return size;
+	}
+
+	/**
+	 * @param i		Index of a histogram.
+	 * @return		Its key.
+	 */
+	public long keyAt (int i) {
+		if (i >= size) {
+			throw new IndexOutOfBoundsException("Histogram " + i + " of " + size);
+		}
+		return keys[i];
+	}
+
+	/**
+	 * Computes the estimates of all histograms.
+	 * @param result	Array with at least "size" elements, result[i] is the estimate of the histogram i.
+	 */
+	public void estimates (long [] result) {
+		if (result.length < size) {
+			throw new IllegalArgumentException("Result array too short: " + result.length + " < " + size);
+		}
+		if (VECTOR_ESTIMATES != null) {
+			try {
+				VECTOR_ESTIMATES.invokeExact(totals, oldestSizes, result, size);
+				return;
+			} catch (Throwable e) {
+				throw new IllegalStateException(e);
+			}
+		}
+		for (int i = 0; i < size; i++) {
+			result[i] = totals[i] - (oldestSizes[i] >>> 1);
+		}
+	}
+
+	/**
+	 * Finds the histograms whose estimate is greater than a threshold.
+	 * @param threshold	The threshold.
+	 * @param indices	Array with at least "size" elements for the indices of the histograms, in ascending order.
+	 * @return		Number of histograms above the threshold.
+	 */
+	public int selectAbove (long threshold, int [] indices) {
+		if (indices.length < size) {
+			throw new IllegalArgumentException("Index array too short: " + indices.length + " < " + size);
+		}
+		//Estimates are not negative, and a threshold of at least -1 keeps threshold - estimate from overflowing
+		threshold = Math.max(threshold, -1);
+		if (VECTOR_SELECT_ABOVE != null) {
+			try {
+				return (int) VECTOR_SELECT_ABOVE.invokeExact(totals, oldestSizes, threshold, indices, size);
+			} catch (Throwable e) {
+				throw new IllegalStateException(e);
+			}
+		}
+		//Every index is written, and the position only moves on if threshold - estimate is negative, so the loop has no branch
+		int found = 0;
+		for (int i = 0; i < size; i++) {
+			indices[found] = i;
+			found += (int) ((threshold - (totals[i] - (oldestSizes[i] >>> 1))) >>> 63);
+		}
+		return found;
+	}
+
+	/**
+	 * Finds the k histograms with the largest estimates, with a min-heap of k entries over the column of estimates.
+	 * @param k		Number of histograms.
+	 * @return		Indices of at most k histograms, the largest estimate first.
+	 */
+	public int [] topK (int k) {
+		k = Math.min(k, size);
+		if (k <= 0) {
+			return new int [0];
+		}
+		if (estimates.length < size) {
+			estimates = new long [keys.length];
+		}
+		estimates(estimates);
+
+		//Heap of the k largest estimates so far, the smallest at the root
+		int [] heap = new int [k];
+		for (int i = 0; i < k; i++) {
+			heap[i] = i;
+			siftUp(heap, i);
+		}
+		for (int i = k; i < size; i++) {
+			if (estimates[i] > estimates[heap[0]]) {
+				heap[0] = i;
+				siftDown(heap, k);
+			}
+		}
+
+		//Remove the smallest one after the other, so the array is sorted from the largest to the smallest estimate
+		for (int n = k - 1; n > 0; n--) {
+			int smallest = heap[0];
+			heap[0] = heap[n];
+			heap[n] = smallest;
+			siftDown(heap, n);
+		}
+		return heap;
+	}
+
+	/**
+	 * @return		True, if the Vector API kernels are used.
+	 */
+	public static boolean isVectorized () {
+		return VECTOR_ESTIMATES != null;
+	}
+
+	/*----------------------------------------------------------------------------------*/
+
+	private void siftUp (int [] heap, int i) {
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (estimates[heap[i]] >= estimates[heap[parent]]) {
+				return;
+			}
+			swap(heap, i, parent);
+			i = parent;
+		}
+	}
+
+	private void siftDown (int [] heap, int length) {
+		int i = 0;
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= length) {
+				return;
+			}
+			if (child + 1 < length && estimates[heap[child + 1]] < estimates[heap[child]]) {
+				child++;
+			}
+			if (estimates[heap[i]] <= estimates[heap[child]]) {
+				return;
+			}
+			swap(heap, i, child);
+			i = child;
+		}
+	}
+
+	private static void swap (int [] heap, int i, int j) {
+		int temp = heap[i];
+		heap[i] = heap[j];
+		heap[j] = temp;
+	}
+
+	private void ensureCapacity (int capacity) {
+		if (capacity > keys.length) {
+			int newCapacity = Math.max(capacity, 2 * keys.length);
+			keys = Arrays.copyOf(keys, newCapacity);
+			totals = Arrays.copyOf(totals, newCapacity);
+			oldestSizes = Arrays.copyOf(oldestSizes, newCapacity);
+		}
+	}
+}
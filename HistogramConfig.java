@@ -0,0 +1,170 @@
+/**
+ * Parameters of an "ExponentialHistogram", derived once from the window size and either the error parameter
+ * or a target relative error.
+ *
+ * The error parameter k gives every size class above 1 a limit of L = k/2 Buckets. When a Bucket of size 2^c is the oldest one,
+ * every smaller class holds at least L-1 Buckets, so at most half of the oldest Bucket is wrong against at least (L-1)(2^c - 1) ones:
+ * the relative error is at most 1/(2L-2), i.e. 1/(k-2) for an even k. For a target error e the smallest sufficient limit
+ * is L = ceil(1/(2e)) + 1, and k = 2L.
+ *
+ * The per-class limits, the largest number of size classes and with it the largest number of Buckets are computed here,
+ * so the memory of a histogram can be stated together with its accuracy before it is created.
+ *
+ * @author Sven Winkler
+ */
+public class HistogramConfig {
+
+	private final long windowSize;
+	private final int errParam;
+	private final long maxOnesInWindow;
+	private final int numberOfClasses;
+	private final int [] limits;
+
+	/**
+	 * @param windowSize	Size of the Sliding Window.
+	 * @param errParam	The error parameter (at least 2).
+	 */
+	public HistogramConfig (long windowSize, int errParam) {
+		this(windowSize, errParam, windowSize);
+	}
+
+	/**
+	 * @param windowSize		Size of the Sliding Window, in steps of the clock.
+	 * @param errParam		The error parameter (at least 2).
+	 * @param maxOnesInWindow	Maximum number of ones in the window, if several ones can arrive at the same time.
+	 */
+	public HistogramConfig (long windowSize, int errParam, long maxOnesInWindow) {
+		ExponentialHistogram.checkParameters(windowSize, errParam);
+		if (maxOnesInWindow < 1) {
+			throw new IllegalArgumentException("maxOnesInWindow must be positive: " + maxOnesInWindow);
+		}
+		this.windowSize = windowSize;
+		this.errParam = errParam;
+		this.maxOnesInWindow = maxOnesInWindow;
+		numberOfClasses = numberOfClasses(maxOnesInWindow);
+		limits = new int [numberOfClasses];
+		for (int c = 0; c < numberOfClasses; c++) {
+			limits[c] = c == 0 ? errParam : errParam / 2;
+		}
+	}
+
+	/**
+	 * Chooses the smallest error parameter whose guaranteed relative error is not larger than the target.
+	 * @param relativeError	Target relative error, greater than 0 and at most 0.5.
+	 * @param windowSize	Size of the Sliding Window.
+	 * @return		The configuration.
+	 */
+	public static HistogramConfig forRelativeError (double relativeError, long windowSize) {
+		if (!(relativeError > 0 && relativeError <= 0.5)) {
+			throw new IllegalArgumentException("Relative error must be in (0, 0.5]: " + relativeError);
+		}
+		double limit = Math.ceil(1 / (2 * relativeError)) + 1;
+		if (limit > Integer.MAX_VALUE / 2) {
+			throw new IllegalArgumentException("Relative error too small: " + relativeError);
+		}
+		return new HistogramConfig(windowSize, 2 * (int) limit);
+	}
+
+	/**
+	 * Number of size classes that can occur: a Bucket of size 2^c contains 2^(c-1) ones that are not older than its own
+	 * timestamp, so 2^(c-1) <= maxOnesInWindow.
+	 * @param maxOnesInWindow	Maximum number of ones in the window.
+	 * @return		Number of size classes.
+	 */
+	static int numberOfClasses (long maxOnesInWindow) {
+		return 64 - Long.numberOfLeadingZeros(maxOnesInWindow) + 1;
+	}
+
+	/**
+	 * @return		Guaranteed relative error of the estimate, infinite for an error parameter below 4.
+	 */
+	public double relativeErrorBound () {
+		return relativeErrorBound(errParam);
+	}
+
+	/**
+	 * @param errParam	An error parameter.
+	 * @return		Guaranteed relative error of a histogram with the error parameter, infinite below 4.
+	 */
+	static double relativeErrorBound (int errParam) {
+		int limit = errParam / 2;
+		return limit < 2 ? Double.POSITIVE_INFINITY : 1.0 / (2 * limit - 2);
+	}
+
+	/**
+	 * @param sizeClass	Exponent of the bucket size, smaller than "getNumberOfClasses".
+	 * @return		Maximum number of Buckets of the size class.
+	 */
+	public int limit (int sizeClass) {
+		return limits[sizeClass];
+	}
+
+	/**
+	 * @return		Largest number of Buckets a histogram can hold.
+	 */
+	public long maxBuckets () {
+		long buckets = 0;
+		for (int limit : limits) {
+			buckets += limit;
+		}
+		return buckets;
+	}
+
+	/**
+	 * Memory of a histogram with this configuration, which is allocated when it is created and does not grow for a stream
+	 * of single elements (only "add(long)" allocates two more arrays).
+	 * @return		Number of bytes, as "ExponentialHistogram.memoryInBytes".
+	 */
+	public long memoryInBytes () {
+		return memoryInBytes(errParam, numberOfClasses);
+	}
+
+	/**
+	 * Memory of a histogram whose rings are allocated for the given error parameter, also for a lowered active one.
+	 * @param errParam		The (active) error parameter.
+	 * @param numberOfClasses	Number of size classes.
+	 * @return		Number of bytes, as "ExponentialHistogram.memoryInBytes".
+	 */
+	static long memoryInBytes (int errParam, int numberOfClasses) {
+		long ringLength = errParam + 1 + (long) (numberOfClasses - 1) * (errParam / 2 + 1);
+		return ExponentialHistogram.FIELD_BYTES + ExponentialHistogram.arrayBytes(8, (int) ringLength) + 2 * ExponentialHistogram.arrayBytes(4, numberOfClasses);
+	}
+
+	/**
+	 * Largest error parameter whose histogram fits into a number of bytes, for running histograms with lowered limits
+	 * within a memory budget (see "ExponentialHistogram.setActiveErrParam").
+	 * @param bytes			Available bytes per histogram.
+	 * @param maxErrParam		Upper bound of the result, the configured error parameter.
+	 * @param numberOfClasses	Number of size classes.
+	 * @return		The error parameter, 2 if not even that fits.
+	 */
+	static int largestErrParam (long bytes, int maxErrParam, int numberOfClasses) {
+		int param = maxErrParam;
+		while (param > 2 && memoryInBytes(param, numberOfClasses) > bytes) {
+			param--;
+		}
+		return param;
+	}
+
+	public long getWindowSize () {
+		return windowSize;
+	}
+
+	public int getErrParam () {
+		return errParam;
+	}
+
+	public long getMaxOnesInWindow () {
+		return maxOnesInWindow;
+	}
+
+	public int getNumberOfClasses () {
+		return numberOfClasses;
+	}
+
+	@Override
+	public String toString () {
+		return "HistogramConfig[windowSize=" + windowSize + ", errParam=" + errParam + ", relativeError=" + relativeErrorBound()
+				+ ", classes=" + numberOfClasses + ", maxBuckets=" + maxBuckets() + ", bytes=" + memoryInBytes() + "]";
+	}
+}
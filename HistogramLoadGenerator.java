@@ -0,0 +1,211 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Load generator for the class "HistogramServer": opens a number of producer connections at the same time, every connection
+ * sends update batches of random (key, bit) pairs and, after every few batches, an estimate request. The time of every
+ * round trip is recorded, and at the end the throughput and the percentiles of the latency are printed.
+ *
+ * Usage: java HistogramLoadGenerator [--port 7070 | --socket path | --embedded] [--connections 64] [--batches 1000]
+ *        [--batch 256] [--keys 100000] [--density 0.3] [--estimate-every 10]
+ * With "--embedded" the server is started in the same process on a free port, so one command measures the whole round trip.
+ *
+ * @author Sven Winkler
+ */
+public class HistogramLoadGenerator {
+
+	private final SocketAddress address;
+	private final int batches;
+	private final int batchSize;
+	private final int numberOfKeys;
+	private final double density;
+	private final int estimateEvery;
+
+	/**
+	 * @param address	Address of the server.
+	 * @param batches	Number of update batches per connection.
+	 * @param batchSize	Number of (key, bit) pairs per batch.
+	 * @param numberOfKeys	Number of distinct keys, which are chosen uniformly.
+	 * @param density	Probability of a one.
+	 * @param estimateEvery	Number of update batches between two estimate requests (0 for none).
+	 */
+	public HistogramLoadGenerator (SocketAddress address, int batches, int batchSize, int numberOfKeys, double density, int estimateEvery) {
+		this.address = address;
+		this.batches = batches;
+		this.batchSize = batchSize;
+		this.numberOfKeys = numberOfKeys;
+		this.density = density;
+		this.estimateEvery = estimateEvery;
+	}
+
+	/**
+	 * Runs all connections at the same time and prints the throughput and the latencies.
+	 * @param numberOfConnections	Number of producers.
+	 * @throws Exception	If a connection fails.
+	 */
+	public void run (int numberOfConnections) throws Exception {
+		ExecutorService executor = HistogramServer.newThreadPerTaskExecutor();
+		List <Future <long []>> results = new ArrayList <Future <long []>> ();
+		long start = System.nanoTime();
+		for (int c = 0; c < numberOfConnections; c++) {
+			long seed = c;
+			results.add(executor.submit(() -> produce(seed)));
+		}
+
+		long [][] latencies = new long [numberOfConnections][];
+		int total = 0;
+		for (int c = 0; c < numberOfConnections; c++) {
+			latencies[c] = results.get(c).get();
+			total += latencies[c].length;
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		executor.shutdown();
+
+		long [] all = new long [total];
+		int position = 0;
+		for (long [] connection : latencies) {
+			System.arraycopy(connection, 0, all, position, connection.length);
+			position += connection.length;
+		}
+		Arrays.sort(all);
+
+		long elements = (long) numberOfConnections * batches * batchSize;
+		System.out.printf("%d connections, %d requests, %d elements in %.3f s%n", numberOfConnections, total, elements, seconds);
+		System.out.printf("throughput: %.0f elements per second, %.0f requests per second%n", elements / seconds, total / seconds);
+		System.out.printf("latency (us): p50 %.1f, p99 %.1f, p99.9 %.1f, max %.1f%n",
+				percentile(all, 0.5) / 1e3, percentile(all, 0.99) / 1e3, percentile(all, 0.999) / 1e3, all[all.length - 1] / 1e3);
+	}
+
+	/**
+	 * Work of one producer.
+	 * @param seed		Seed of the random keys and bits.
+	 * @return		Round trip times of all requests in nanoseconds.
+	 */
+	private long [] produce (long seed) throws IOException {
+		SplittableRandom random = new SplittableRandom(seed);
+		int estimates = estimateEvery > 0 ? batches / estimateEvery : 0;
+		long [] latencies = new long [batches + estimates];
+		int requests = 0;
+		long [] keys = new long [batchSize];
+
+		try (SocketChannel channel = SocketChannel.open(address);
+				DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16))) {
+			//Requests and responses are small, so they are sent at once instead of being collected (Nagle's algorithm)
+			if (channel.supportedOptions().contains(StandardSocketOptions.TCP_NODELAY)) {
+				channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			}
+			for (int b = 1; b <= batches; b++) {
+				long start = System.nanoTime();
+				out.writeByte(HistogramServer.UPDATE);
+				out.writeInt(batchSize);
+				for (int i = 0; i < batchSize; i++) {
+					keys[i] = random.nextInt(numberOfKeys);
+					out.writeLong(keys[i]);
+					out.writeByte(random.nextDouble() < density ? 1 : 0);
+				}
+				out.flush();
+				in.readLong();
+				latencies[requests++] = System.nanoTime() - start;
+
+				if (estimateEvery > 0 && b % estimateEvery == 0) {
+					start = System.nanoTime();
+					out.writeByte(HistogramServer.ESTIMATE);
+					out.writeInt(batchSize);
+					for (int i = 0; i < batchSize; i++) {
+						out.writeLong(keys[i]);
+					}
+					out.flush();
+					for (int i = 0; i < batchSize; i++) {
+						in.readLong();
+					}
+					latencies[requests++] = System.nanoTime() - start;
+				}
+			}
+		}
+		return Arrays.copyOf(latencies, requests);
+	}
+
+	private static double percentile (long [] sorted, double p) {
+		return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+	}
+
+	/**
+	 * Starts the load generator with the options of the command line (see the description of the class).
+	 * @param args		Command line options.
+	 * @throws Exception	If the server cannot be reached or a connection fails.
+	 */
+	public static void main (String[] args) throws Exception {
+		int port = 7070;
+		String path = null;
+		boolean embedded = false;
+		int connections = 64;
+		int batches = 1000;
+		int batchSize = 256;
+		int keys = 100_000;
+		double density = 0.3;
+		int estimateEvery = 10;
+
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+				case "--port":
+					port = Integer.parseInt(args[++i]);
+					break;
+				case "--socket":
+					path = args[++i];
+					break;
+				case "--embedded":
+					embedded = true;
+					break;
+				case "--connections":
+					connections = Integer.parseInt(args[++i]);
+					break;
+				case "--batches":
+					batches = Integer.parseInt(args[++i]);
+					break;
+				case "--batch":
+					batchSize = Integer.parseInt(args[++i]);
+					break;
+				case "--keys":
+					keys = (int) Double.parseDouble(args[++i]);
+					break;
+				case "--density":
+					density = Double.parseDouble(args[++i]);
+					break;
+				case "--estimate-every":
+					estimateEvery = Integer.parseInt(args[++i]);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option: " + args[i]);
+			}
+		}
+
+		HistogramServer server = null;
+		SocketAddress address = HistogramServer.address(port, path);
+		if (embedded) {
+			server = new HistogramServer(1000, 10);
+			address = server.start(HistogramServer.address(path == null ? 0 : port, path));
+		}
+		try {
+			new HistogramLoadGenerator(address, batches, batchSize, keys, density, estimateEvery).run(connections);
+		} finally {
+			if (server != null) {
+				System.out.println("keys in the store: " + server.size());
+				server.close();
+			}
+		}
+	}
+}
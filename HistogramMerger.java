@@ -0,0 +1,146 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Combines histograms of disjoint parts of one stream into a histogram of the whole stream, for example when the stream
+ * is sharded across threads or machines. All parts must use the same clock, so that equal timestamps mean the same arrival.
+ *
+ * The Buckets of all histograms are collected in one list sorted by timestamp, and every Bucket is added to a new histogram
+ * as 2^k ones that arrive at its timestamp. For N histograms only the collection is parallel: the lists are collected and
+ * merged pairwise by a fork/join task. Adding the sorted Buckets to the new histogram is sequential, since every Bucket
+ * depends on the merges of the older ones, but it happens only once, at the end.
+ *
+ * Error bound (Papapetrou et al., "Sketching distributed sliding-window data streams", 2015): if the input histograms have the
+ * relative error e and the new histogram has the relative error e', the merged estimate has a relative error of at most
+ * e + e' + e * e'. With the same error parameter for all histograms (e = e' = 1/(errParam-2) for an even errParam)
+ * this is 2e + e^2, independent of the number of merged histograms.
+ *
+ * @author Sven Winkler
+ */
+public class HistogramMerger {
+
+	/** Number of histograms up to which the task collects the Buckets itself instead of splitting. */
+	private static final int SEQUENTIAL_THRESHOLD = 2;
+
+	/**
+	 * Merges two histograms.
+	 * @param first		Histogram of one part of the stream.
+	 * @param second	Histogram of another part of the stream, with the same window size and error parameter.
+	 * @return		New histogram of both parts, at the later of both clock values.
+	 */
+	public static ExponentialHistogram merge (ExponentialHistogram first, ExponentialHistogram second) {
+		return merge(new ExponentialHistogram [] {first, second});
+	}
+
+	/**
+	 * Merges any number of histograms in the common fork/join pool.
+	 * @param histograms	Histograms of disjoint parts of the stream, with the same window size and error parameter.
+	 * @return		New histogram of all parts, at the latest clock value.
+	 */
+	public static ExponentialHistogram merge (ExponentialHistogram [] histograms) {
+		return merge(histograms, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Merges any number of histograms in the given fork/join pool.
+	 * @param histograms	Histograms of disjoint parts of the stream, with the same window size and error parameter.
+	 * @param pool		Pool that collects the Buckets.
+	 * @return		New histogram of all parts, at the latest clock value.
+	 */
+	public static ExponentialHistogram merge (ExponentialHistogram [] histograms, ForkJoinPool pool) {
+		if (histograms.length == 0) {
+			throw new IllegalArgumentException("No histograms to merge");
+		}
+		long windowSize = histograms[0].getWindowSize();
+		int errParam = histograms[0].getErrParam();
+		long clock = 0;
+		for (ExponentialHistogram histogram : histograms) {
+			if (histogram.getWindowSize() != windowSize || histogram.getErrParam() != errParam) {
+				throw new IllegalArgumentException("Histograms with different window sizes or error parameters cannot be merged");
+			}
+			clock = Math.max(clock, histogram.getClock());
+		}
+
+		long [] buckets = pool.invoke(new CollectTask(histograms, 0, histograms.length));
+
+		//Add the Buckets that are still in the window at the latest clock, from the oldest to the newest one
+		ExponentialHistogram merged = new ExponentialHistogram(windowSize, errParam, windowSize);
+		for (long bucket : buckets) {
+			long timestamp = PackedBuckets.timestampOf(bucket);
+			if (clock - timestamp < windowSize) {
+				merged.advanceTo(timestamp);
+				merged.add(1L << PackedBuckets.exponentOf(bucket));
+			}
+		}
+		merged.advanceTo(clock);
+		return merged;
+	}
+
+	/*----------------------------------------------------------------------------------*/
+
+	/**
+	 * Collects the packed Buckets of a range of histograms, sorted by timestamp.
+	 */
+	private static final class CollectTask extends RecursiveTask <long []> {
+		private static final long serialVersionUID = 1L;
+
+		private final ExponentialHistogram [] histograms;
+		private final int from;
+		private final int to;
+
+		CollectTask (ExponentialHistogram [] histograms, int from, int to) {
+			this.histograms = histograms;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected long [] compute () {
+			if (to - from <= SEQUENTIAL_THRESHOLD) {
+				long [] buckets = packedBuckets(histograms[from]);
+				for (int i = from + 1; i < to; i++) {
+					buckets = mergeSorted(buckets, packedBuckets(histograms[i]));
+				}
+				return buckets;
+			}
+			int middle = (from + to) >>> 1;
+			CollectTask left = new CollectTask(histograms, from, middle);
+			left.fork();
+			long [] right = new CollectTask(histograms, middle, to).compute();
+			return mergeSorted(left.join(), right);
+		}
+	}
+
+	/**
+	 * @return		The Buckets of the histogram, packed and the oldest one first.
+	 */
+	private static long [] packedBuckets (ExponentialHistogram histogram) {
+		PackedBuckets buckets = new PackedBuckets(histogram.numberOfBuckets());
+		histogram.copyTo(buckets);
+		long [] packed = new long [buckets.numberOfBuckets()];
+		for (int i = 0; i < packed.length; i++) {
+			packed[i] = buckets.get(i);
+		}
+		return packed;
+	}
+
+	/**
+	 * Merges two sorted arrays of packed Buckets into one sorted array.
+	 */
+	private static long [] mergeSorted (long [] a, long [] b) {
+		long [] merged = new long [a.length + b.length];
+		int i = 0;
+		int j = 0;
+		int k = 0;
+		while (i < a.length && j < b.length) {
+			merged[k++] = a[i] <= b[j] ? a[i++] : b[j++];
+		}
+		while (i < a.length) {
+			merged[k++] = a[i++];
+		}
+		while (j < b.length) {
+			merged[k++] = b[j++];
+		}
+		return merged;
+	}
+}
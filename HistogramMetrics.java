@@ -0,0 +1,39 @@
+/**
+ * Receiver of the events of an "ExponentialHistogram", set with the method "setMetrics".
+ * The methods are called by the thread that updates the histogram, right after the event, so an implementation has to be cheap
+ * and must not change the histogram. The class "CountingHistogramMetrics" counts the events and exposes them via JMX;
+ * other implementations can forward the events to any metrics registry.
+ *
+ * @author Sven Winkler
+ */
+public interface HistogramMetrics {
+
+	/**
+	 * The window moved and/or ones arrived.
+	 * @param elements	Number of steps the window moved.
+	 * @param ones		Number of ones that arrived with the last step (at the current clock value).
+	 */
+	void updated (long elements, long ones);
+
+	/**
+	 * Buckets were merged after a one arrived.
+	 * @param depth		Number of size classes that overflowed in the cascade.
+	 * @param merges	Number of merges of two Buckets.
+	 */
+	void merged (int depth, long merges);
+
+	/**
+	 * Buckets were removed from the histogram because their timestamp left the window.
+	 * @param buckets	Number of removed Buckets.
+	 */
+	void expired (int buckets);
+
+	/**
+	 * The limits of the size classes were changed to another active error parameter (see "ExponentialHistogram.setActiveErrParam").
+	 * The merges of the new layout are reported here and not with "merged", as they are no cascade of an update.
+	 * @param activeErrParam	The new active error parameter.
+	 * @param merges	Number of merges of two Buckets.
+	 */
+	default void relaidOut (int activeErrParam, long merges) {
+	}
+}
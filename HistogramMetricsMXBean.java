@@ -0,0 +1,51 @@
+/**
+ * Management interface of the class "CountingHistogramMetrics", for JConsole or any other JMX client.
+ * The values are published by the thread that updates the histogram, so they can be slightly behind; the bucket and memory
+ * gauges are taken from a copy that is refreshed every 1024 events and after every change of the active error parameter.
+ *
+ * @author Sven Winkler
+ */
+public interface HistogramMetricsMXBean {
+
+	/** @return		Number of elements that have moved the window. */
+	long getElements ();
+
+	/** @return		Number of ones that have arrived. */
+	long getOnes ();
+
+	/** @return		Number of merges of two Buckets. */
+	long getMerges ();
+
+	/** @return		Number of Buckets that have expired. */
+	long getExpirations ();
+
+	/** @return		Number of changes of the active error parameter under a memory budget. */
+	long getRelayouts ();
+
+	/** @return		Number of merges of two Buckets by the changes of the active error parameter, not contained in "getMerges". */
+	long getRelayoutMerges ();
+
+	/** @return		Number of merge cascades per depth, index d for a cascade through d size classes (the last index counts all deeper ones). */
+	long [] getCascadeDepths ();
+
+	/** @return		Number of Buckets in the histogram. */
+	int getNumberOfBuckets ();
+
+	/** @return		Number of Buckets per size class. */
+	int [] getBucketsPerClass ();
+
+	/** @return		Approximate heap memory of the histogram in bytes, from the same copy as the bucket gauges. */
+	long getMemoryInBytes ();
+
+	/** @return		Estimated number of ones in the window after the last update. */
+	long getEstimate ();
+
+	/** @return		Relative error of the estimate at the last sample of the exact shadow window, -1 without shadow window. */
+	double getRelativeError ();
+
+	/** @return		Largest relative error of all samples of the exact shadow window, -1 without shadow window. */
+	double getMaxRelativeError ();
+
+	/** @return		Absolute error of the estimate at the last sample of the exact shadow window, -1 without shadow window. */
+	long getAbsoluteError ();
+}
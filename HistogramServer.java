@@ -0,0 +1,384 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Local counting service: many producers connect over a loopback TCP socket or a Unix domain socket and send batches of
+ * (key, bit) pairs into shared "KeyedHistogramStore"s, and read back the estimates of keys.
+ *
+ * Every connection is served by its own thread with blocking I/O. On a Java version with virtual threads (21 or later)
+ * these are virtual threads, otherwise platform threads of a cached pool. The keys are split into stripes (four per processor)
+ * by a hash of the key, and every stripe has a store and a lock of its own, so requests of different producers only wait
+ * for each other if they have keys in the same stripe. An update only locks the stripes of the keys that receive a one,
+ * in ascending order, and takes the clock value of the batch while it holds these locks, so the clock of every store
+ * only moves forward. A lock is only held for the update or query of a batch, not while a connection waits for data.
+ *
+ * Protocol (big-endian, one response per request):
+ * UPDATE:   byte 1, int n, n times (long key, byte bit)	-> long clock value of the batch
+ * ESTIMATE: byte 2, int n, n times long key			-> n times long estimate
+ * Every update request is one batch, i.e. one step of the window of all keys. The clock is shared by all connections, so
+ * the window of W batches means "the last W update requests of all producers together", not a time span and not the last
+ * W requests of one producer: how much of the stream of one producer is in the window depends on how often the other
+ * producers send requests and how the requests interleave. A producer that needs a window in time has to send its
+ * updates on a fixed tick (for example one request per second with all pairs of that second), and all producers
+ * should use the same tick.
+ *
+ * Usage: java HistogramServer --port 7070 | --socket path [--window 1000] [--err 10]
+ *
+ * @author Sven Winkler
+ */
+public class HistogramServer implements Closeable {
+
+	static final byte UPDATE = 1;
+	static final byte ESTIMATE = 2;
+
+	/** Largest number of pairs or keys in one request. */
+	static final int MAX_BATCH = 1 << 20;
+
+	/** Largest number of pairs for which a connection keeps its arrays between requests. */
+	static final int MAX_REUSED_BATCH = 1 << 14;
+
+	private final KeyedHistogramStore [] stores;
+	private final ReentrantLock [] locks;
+	private final int stripeShift;
+
+	/** Number of update requests of all connections so far. */
+	private final AtomicLong clock = new AtomicLong();
+
+	private final ExecutorService connections = newThreadPerTaskExecutor();
+
+	private ServerSocketChannel server;
+	private Path socketFile;
+	private Thread acceptor;
+
+	/**
+	 * @param windowSize	Size of the Sliding Window, in batches.
+	 * @param errParam	The error parameter of every histogram.
+	 */
+	public HistogramServer (int windowSize, int errParam) {
+		int numberOfStripes = Integer.highestOneBit(Math.max(Runtime.getRuntime().availableProcessors(), 1) * 8 - 1);
+		stores = new KeyedHistogramStore [numberOfStripes];
+		locks = new ReentrantLock [numberOfStripes];
+		for (int i = 0; i < numberOfStripes; i++) {
+			stores[i] = new KeyedHistogramStore(windowSize, errParam);
+			locks[i] = new ReentrantLock();
+		}
+		stripeShift = 64 - Integer.numberOfTrailingZeros(numberOfStripes);
+	}
+
+	/**
+	 * Per connection buffers of a request.
+	 */
+	private static final class Batch {
+
+		final long [] keys;
+		final int [] bits;
+		final long [] estimates;
+
+		/** Keys of the ones, sorted by stripe. */
+		final long [] stripeKeys;
+		final int [] stripeBits;
+
+		/** Start index of every stripe in "stripeKeys", and the end of the last stripe. */
+		final int [] stripeStarts;
+		final int [] stripeEnds;
+
+		Batch (int capacity, int numberOfStripes) {
+			keys = new long [capacity];
+			bits = new int [capacity];
+			estimates = new long [capacity];
+			stripeKeys = new long [capacity];
+			stripeBits = new int [capacity];
+			stripeStarts = new int [numberOfStripes + 1];
+			stripeEnds = new int [numberOfStripes];
+		}
+	}
+
+	/**
+	 * Opens the server socket and starts accepting connections in the background.
+	 * @param address	An "InetSocketAddress" (port 0 for any free port) or a "UnixDomainSocketAddress".
+	 * @return		The address the server is bound to.
+	 * @throws IOException	If the socket cannot be opened.
+	 */
+	public SocketAddress start (SocketAddress address) throws IOException {
+		if (address instanceof UnixDomainSocketAddress) {
+			socketFile = ((UnixDomainSocketAddress) address).getPath();
+			Files.deleteIfExists(socketFile);
+			server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+		} else {
+			server = ServerSocketChannel.open();
+		}
+		server.bind(address);
+
+		acceptor = new Thread(this::acceptConnections, "HistogramServer-acceptor");
+		acceptor.start();
+		return server.getLocalAddress();
+	}
+
+	/**
+	 * Stops accepting connections and closes all open connections.
+	 * @throws IOException	If the server socket cannot be closed.
+	 */
+	@Override
+	public void close () throws IOException {
+		if (server != null) {
+			server.close();
+		}
+		connections.shutdownNow();
+		if (socketFile != null) {
+			Files.deleteIfExists(socketFile);
+		}
+	}
+
+	/**
+	 * @return		Number of keys in all stores.
+	 */
+	public int size () {
+		int size = 0;
+		for (int i = 0; i < stores.length; i++) {
+			locks[i].lock();
+			try {
+				size += stores[i].size();
+			} finally {
+				locks[i].unlock();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Processes one update request: the ones are sorted by stripe, then the stripes that receive a one are locked in ascending
+	 * order (so two requests cannot wait for each other) and updated with the next clock value.
+	 * @param batch		Buffers of the connection, with the pairs of the request.
+	 * @param n		Number of pairs.
+	 * @return		Clock value of the batch.
+	 */
+	private long update (Batch batch, int n) {
+		int [] starts = batch.stripeStarts;
+		int [] ends = batch.stripeEnds;
+		Arrays.fill(starts, 0);
+		for (int i = 0; i < n; i++) {
+			if (batch.bits[i] == 1) {
+				starts[stripeOf(batch.keys[i]) + 1]++;
+			}
+		}
+		for (int s = 0; s < stores.length; s++) {
+			starts[s + 1] += starts[s];
+			ends[s] = starts[s];
+		}
+		for (int i = 0; i < n; i++) {
+			if (batch.bits[i] == 1) {
+				int index = ends[stripeOf(batch.keys[i])]++;
+				batch.stripeKeys[index] = batch.keys[i];
+				batch.stripeBits[index] = 1;
+			}
+		}
+
+		for (int s = 0; s < stores.length; s++) {
+			if (starts[s] < ends[s]) {
+				locks[s].lock();
+			}
+		}
+		try {
+			long time = clock.incrementAndGet();
+			for (int s = 0; s < stores.length; s++) {
+				if (starts[s] < ends[s]) {
+					stores[s].update(time, batch.stripeKeys, batch.stripeBits, starts[s], ends[s]);
+				}
+			}
+			return time;
+		} finally {
+			for (int s = 0; s < stores.length; s++) {
+				if (starts[s] < ends[s]) {
+					locks[s].unlock();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return		The estimate of the key at the current clock value.
+	 */
+	private long estimate (long key) {
+		int s = stripeOf(key);
+		locks[s].lock();
+		try {
+			//Every update of this stripe took its clock value under the lock, so the store is never ahead of the clock
+			stores[s].advanceTo(clock.get());
+			return stores[s].estimate(key);
+		} finally {
+			locks[s].unlock();
+		}
+	}
+
+	/**
+	 * @return		Stripe of the key, from the high bits of a hash that differs from the one of "KeyedHistogramStore",
+	 *			so the keys of a stripe still spread over all slots of its store.
+	 */
+	private int stripeOf (long key) {
+		return (int) ((key * 0xC2B2AE3D27D4EB4FL) >>> stripeShift);
+	}
+
+	/**
+	 * Creates an executor that starts one thread per task: a virtual thread if the Java version supports it
+	 * ("Executors.newVirtualThreadPerTaskExecutor" is looked up at runtime, so the class also compiles for Java 17).
+	 * @return		The executor.
+	 */
+	static ExecutorService newThreadPerTaskExecutor () {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newCachedThreadPool(task -> {
+				Thread thread = new Thread(task);
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+
+	/**
+	 * Parses the address options of the server and the client.
+	 * @param port		TCP port on the loopback interface, used if path is null.
+	 * @param path		Path of a Unix domain socket or null.
+	 * @return		The address.
+	 */
+	static SocketAddress address (int port, String path) {
+		if (path != null) {
+			return UnixDomainSocketAddress.of(path);
+		}
+		return new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+	}
+
+	/*----------------------------------------------------------------------------------*/
+
+	private void acceptConnections () {
+		try {
+			while (true) {
+				SocketChannel channel = server.accept();
+				connections.execute(() -> serve(channel));
+			}
+		} catch (ClosedChannelException e) {
+			//The server was closed
+		} catch (IOException e) {
+			System.err.println("HistogramServer stopped: " + e);
+		}
+	}
+
+	/**
+	 * Answers the requests of one connection until the producer closes it.
+	 * The arrays of a batch are reused for all requests of the connection up to "MAX_REUSED_BATCH" pairs;
+	 * a larger request gets arrays of its own, so an idle connection does not hold on to the memory of its largest request.
+	 */
+	private void serve (SocketChannel channel) {
+		Batch reused = new Batch(256, stores.length);
+
+		try (SocketChannel c = channel;
+				DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(c), 1 << 16));
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(c), 1 << 16))) {
+			//Requests and responses are small, so they are sent at once instead of being collected (Nagle's algorithm)
+			if (c.supportedOptions().contains(StandardSocketOptions.TCP_NODELAY)) {
+				c.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			}
+			while (true) {
+				int type = in.read();
+				if (type < 0) {
+					return;
+				}
+				int n = in.readInt();
+				if (n < 0 || n > MAX_BATCH) {
+					throw new IOException("Invalid batch size: " + n);
+				}
+				Batch batch = reused;
+				if (n > batch.keys.length) {
+					batch = new Batch(n, stores.length);
+					if (n <= MAX_REUSED_BATCH) {
+						reused = batch;
+					}
+				}
+
+				if (type == UPDATE) {
+					for (int i = 0; i < n; i++) {
+						batch.keys[i] = in.readLong();
+						batch.bits[i] = in.readByte();
+					}
+					out.writeLong(update(batch, n));
+				} else if (type == ESTIMATE) {
+					for (int i = 0; i < n; i++) {
+						batch.keys[i] = in.readLong();
+					}
+					for (int i = 0; i < n; i++) {
+						batch.estimates[i] = estimate(batch.keys[i]);
+					}
+					for (int i = 0; i < n; i++) {
+						out.writeLong(batch.estimates[i]);
+					}
+				} else {
+					throw new IOException("Unknown request type: " + type);
+				}
+				out.flush();
+			}
+		} catch (EOFException | ClosedChannelException e) {
+			//The producer closed the connection
+		} catch (IOException e) {
+			System.err.println("Connection closed: " + e);
+		}
+	}
+
+	/**
+	 * Starts the server with the options of the command line (see the description of the class) and runs until the process is stopped.
+	 * @param args		Command line options.
+	 * @throws IOException	If the socket cannot be opened.
+	 */
+	public static void main (String[] args) throws IOException {
+		int port = 7070;
+		String path = null;
+		int windowSize = 1000;
+		int errParam = 10;
+
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+				case "--port":
+					port = Integer.parseInt(args[++i]);
+					break;
+				case "--socket":
+					path = args[++i];
+					break;
+				case "--window":
+					windowSize = Integer.parseInt(args[++i]);
+					break;
+				case "--err":
+					errParam = Integer.parseInt(args[++i]);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option: " + args[i]);
+			}
+		}
+
+		HistogramServer server = new HistogramServer(windowSize, errParam);
+		SocketAddress bound = server.start(address(port, path));
+		System.err.println("Listening on " + bound);
+	}
+}
@@ -0,0 +1,345 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Snapshots of histograms in a compact binary file, so the state survives a restart of the process.
+ *
+ * Every Bucket is stored as the exponent of its size (one byte) and the distance of its timestamp to the previous Bucket
+ * as a variable-length number (one byte for distances below 128). The first Bucket stores its age instead.
+ * The file is written and read through memory-mapped regions of the file, and the Buckets are decoded from the mapped
+ * memory directly into the rings of the histograms.
+ *
+ * When a snapshot is restored, the clock can be moved forward by the number of elements that were missed during the downtime.
+ * Buckets that expired in the meantime are dropped while loading, and keys without a Bucket are not restored at all.
+ * A file that ends too early, has parameters out of range or contains Buckets that no histogram can hold (a class that
+ * is too full, Buckets that are not ordered by age and size, or a timestamp after the clock of the snapshot) is rejected
+ * with an IOException.
+ *
+ * @author Sven Winkler
+ */
+public class HistogramSnapshots {
+
+	/** "DGIM" */
+	private static final int MAGIC = 0x4447494D;
+	private static final byte VERSION = 1;
+	private static final byte TYPE_HISTOGRAM = 1;
+	private static final byte TYPE_STORE = 2;
+
+	/** magic, version, type, windowSize, errParam, clock, number of buckets or keys */
+	private static final int HEADER_SIZE = 4 + 1 + 1 + 4 + 4 + 8 + 8;
+
+	/** Size of a mapped region; a mapped buffer can hold at most 2 GB. */
+	private static final long REGION_SIZE = 1L << 30;
+
+	/**
+	 * Largest error parameter of a snapshot (a relative error of about 3 * 10^-5), so a damaged header cannot make the reader
+	 * allocate rings of gigabytes. A histogram with this error parameter has rings of at most about 8 MB.
+	 */
+	static final int MAX_ERR_PARAM = 1 << 16;
+
+	/**
+	 * Writes a snapshot of a histogram.
+	 * @param histogram	The histogram.
+	 * @param file		The file, which is overwritten.
+	 * @throws IOException	If the file cannot be written.
+	 */
+	public static void write (ExponentialHistogram histogram, Path file) throws IOException {
+		PackedBuckets buckets = new PackedBuckets();
+		histogram.copyTo(buckets);
+		long clock = histogram.getClock();
+		checkParameters(histogram.getWindowSize(), histogram.getErrParam());
+
+		try (MappedWriter writer = new MappedWriter(file, HEADER_SIZE + bucketsSize(buckets, clock))) {
+			writer.header(TYPE_HISTOGRAM, (int) histogram.getWindowSize(), histogram.getErrParam(), clock, buckets.numberOfBuckets());
+			writer.buckets(buckets, clock);
+		}
+	}
+
+	/**
+	 * Restores a histogram from a snapshot.
+	 * @param file		The file of the snapshot.
+	 * @param clockOffset	Number of elements that arrived after the snapshot was taken (0 to continue where the snapshot was taken).
+	 * @return		The histogram, without the Buckets that are expired at the new clock value.
+	 * @throws IOException	If the file cannot be read or is no snapshot of a histogram.
+	 */
+	public static ExponentialHistogram read (Path file, long clockOffset) throws IOException {
+		checkClockOffset(clockOffset);
+		try (MappedReader reader = new MappedReader(file)) {
+			reader.header(TYPE_HISTOGRAM);
+			ExponentialHistogram histogram = new ExponentialHistogram(reader.windowSize, reader.errParam);
+			reader.buckets(histogram, reader.count, reader.clock);
+			histogram.advanceTo(Math.addExact(reader.clock, clockOffset));
+			return histogram;
+		} catch (BufferUnderflowException | IllegalArgumentException | ArithmeticException e) {
+			throw new IOException("Damaged histogram snapshot: " + file, e);
+		}
+	}
+
+	/**
+	 * Writes a snapshot of all keys of a store.
+	 * @param store		The store.
+	 * @param file		The file, which is overwritten.
+	 * @throws IOException	If the file cannot be written.
+	 */
+	public static void write (KeyedHistogramStore store, Path file) throws IOException {
+		PackedBuckets buckets = new PackedBuckets();
+		long clock = store.getClock();
+		checkParameters(store.getWindowSize(), store.getErrParam());
+
+		//First pass: size of the file
+		long size = HEADER_SIZE;
+		for (int slot = 0; slot < store.capacity(); slot++) {
+			ExponentialHistogram histogram = store.histogramAt(slot);
+			if (histogram != null) {
+				histogram.copyTo(buckets);
+				size += 8 + varLongSize(buckets.numberOfBuckets()) + bucketsSize(buckets, clock);
+			}
+		}
+
+		try (MappedWriter writer = new MappedWriter(file, size)) {
+			writer.header(TYPE_STORE, store.getWindowSize(), store.getErrParam(), clock, store.size());
+			for (int slot = 0; slot < store.capacity(); slot++) {
+				ExponentialHistogram histogram = store.histogramAt(slot);
+				if (histogram != null) {
+					histogram.copyTo(buckets);
+					writer.ensure(8 + varLongSize(buckets.numberOfBuckets()));
+					writer.buffer.putLong(store.keyAt(slot));
+					writer.putVarLong(buckets.numberOfBuckets());
+					writer.buckets(buckets, clock);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Restores a store from a snapshot.
+	 * @param file		The file of the snapshot.
+	 * @param clockOffset	Number of batches that were processed after the snapshot was taken.
+	 * @return		The store, without the keys whose Buckets are all expired at the new clock value.
+	 * @throws IOException	If the file cannot be read or is no snapshot of a store.
+	 */
+	public static KeyedHistogramStore readStore (Path file, long clockOffset) throws IOException {
+		checkClockOffset(clockOffset);
+		try (MappedReader reader = new MappedReader(file)) {
+			reader.header(TYPE_STORE);
+			//Every key takes at least 9 bytes (the key and a number of Buckets of one byte)
+			if (reader.count > Integer.MAX_VALUE || 9 * reader.count > reader.size - HEADER_SIZE) {
+				throw new IOException("Snapshot is truncated: " + reader.count + " keys do not fit into the file");
+			}
+			long clock = Math.addExact(reader.clock, clockOffset);
+			KeyedHistogramStore store = new KeyedHistogramStore(reader.windowSize, reader.errParam);
+			store.restoreClock(clock, (int) reader.count);
+
+			for (long k = 0; k < reader.count; k++) {
+				reader.ensure(8 + 10);
+				long key = reader.buffer.getLong();
+				long numberOfBuckets = reader.getVarLong();
+
+				ExponentialHistogram histogram = new ExponentialHistogram(reader.windowSize, reader.errParam);
+				reader.buckets(histogram, numberOfBuckets, reader.clock);
+				histogram.advanceTo(clock);
+				if (!histogram.isEmpty()) {
+					store.restore(key, histogram);
+				}
+			}
+			return store;
+		} catch (BufferUnderflowException | IllegalArgumentException | ArithmeticException e) {
+			throw new IOException("Damaged histogram snapshot: " + file, e);
+		}
+	}
+
+	/*----------------------------------------------------------------------------------*/
+
+	/**
+	 * Checks that a histogram can be written in the format of the file, before the file is created.
+	 * @throws IOException	If the window size does not fit into the header or the error parameter is larger than MAX_ERR_PARAM.
+	 */
+	private static void checkParameters (long windowSize, int errParam) throws IOException {
+		if (windowSize > Integer.MAX_VALUE || errParam > MAX_ERR_PARAM) {
+			throw new IOException("Window size " + windowSize + " or error parameter " + errParam + " out of range for a snapshot");
+		}
+	}
+
+	private static void checkClockOffset (long clockOffset) {
+		if (clockOffset < 0) {
+			throw new IllegalArgumentException("clockOffset must not be negative: " + clockOffset);
+		}
+	}
+
+	/**
+	 * @return		Number of bytes of the Buckets in the file.
+	 */
+	private static long bucketsSize (PackedBuckets buckets, long clock) {
+		long size = 0;
+		long previous = clock;
+		for (int i = 0; i < buckets.numberOfBuckets(); i++) {
+			long timestamp = buckets.timestamp(i);
+			size += 1 + varLongSize(i == 0 ? clock - timestamp : timestamp - previous);
+			previous = timestamp;
+		}
+		return size;
+	}
+
+	private static int varLongSize (long value) {
+		int size = 1;
+		while ((value >>>= 7) != 0) {
+			size++;
+		}
+		return size;
+	}
+
+	/**
+	 * Writes a file of known size through mapped regions.
+	 */
+	private static final class MappedWriter implements Closeable {
+		final FileChannel channel;
+		final long size;
+		MappedByteBuffer buffer;
+		long regionStart;
+
+		MappedWriter (Path file, long size) throws IOException {
+			channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+					StandardOpenOption.READ, StandardOpenOption.WRITE);
+			this.size = size;
+			buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.min(size, REGION_SIZE));
+		}
+
+		/**
+		 * Maps the next region, if the current one has less than the given number of bytes left.
+		 */
+		void ensure (int bytes) throws IOException {
+			if (buffer.remaining() < bytes) {
+				regionStart += buffer.position();
+				buffer = channel.map(FileChannel.MapMode.READ_WRITE, regionStart, Math.min(size - regionStart, REGION_SIZE));
+			}
+		}
+
+		void header (byte type, int windowSize, int errParam, long clock, long count) {
+			buffer.putInt(MAGIC);
+			buffer.put(VERSION);
+			buffer.put(type);
+			buffer.putInt(windowSize);
+			buffer.putInt(errParam);
+			buffer.putLong(clock);
+			buffer.putLong(count);
+		}
+
+		void buckets (PackedBuckets buckets, long clock) throws IOException {
+			ensure((int) bucketsSize(buckets, clock));
+			long previous = clock;
+			for (int i = 0; i < buckets.numberOfBuckets(); i++) {
+				long timestamp = buckets.timestamp(i);
+				buffer.put((byte) buckets.sizeExponent(i));
+				putVarLong(i == 0 ? clock - timestamp : timestamp - previous);
+				previous = timestamp;
+			}
+		}
+
+		void putVarLong (long value) {
+			while ((value & ~0x7FL) != 0) {
+				buffer.put((byte) ((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+			buffer.put((byte) value);
+		}
+
+		@Override
+		public void close () throws IOException {
+			buffer.force();
+			channel.close();
+		}
+	}
+
+	/**
+	 * Reads a file through mapped regions.
+	 */
+	private static final class MappedReader implements Closeable {
+		final FileChannel channel;
+		final long size;
+		MappedByteBuffer buffer;
+		long regionStart;
+
+		int windowSize;
+		int errParam;
+		long clock;
+		long count;
+
+		MappedReader (Path file) throws IOException {
+			channel = FileChannel.open(file, StandardOpenOption.READ);
+			size = channel.size();
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, REGION_SIZE));
+		}
+
+		/**
+		 * Maps the next region, if the current one has less than the given number of bytes left.
+		 */
+		void ensure (int bytes) throws IOException {
+			if (buffer.remaining() < bytes && regionStart + buffer.limit() < size) {
+				regionStart += buffer.position();
+				buffer = channel.map(FileChannel.MapMode.READ_ONLY, regionStart, Math.min(size - regionStart, REGION_SIZE));
+			}
+		}
+
+		void header (byte type) throws IOException {
+			if (size < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.get() != VERSION || buffer.get() != type) {
+				throw new IOException("Not a histogram snapshot of the expected type");
+			}
+			windowSize = buffer.getInt();
+			errParam = buffer.getInt();
+			clock = buffer.getLong();
+			count = buffer.getLong();
+			//Checked before any histogram is allocated in the size of the parameters
+			if (windowSize < 1 || errParam < 2 || errParam > MAX_ERR_PARAM || clock < 0 || count < 0) {
+				throw new IOException("Snapshot header out of range: windowSize " + windowSize + ", errParam " + errParam
+						+ ", clock " + clock + ", count " + count);
+			}
+		}
+
+		/**
+		 * Decodes Buckets directly into a histogram.
+		 * @param histogram		Empty histogram.
+		 * @param numberOfBuckets	Number of Buckets to decode.
+		 * @param snapshotClock		Clock of the snapshot, the reference of the first timestamp.
+		 * @throws IOException		If the file has fewer bytes left than the Buckets need (at least 2 per Bucket),
+		 *				or a timestamp is older than the previous one or after the clock of the snapshot.
+		 */
+		void buckets (ExponentialHistogram histogram, long numberOfBuckets, long snapshotClock) throws IOException {
+			if (numberOfBuckets < 0 || 2 * numberOfBuckets > size - regionStart - buffer.position()) {
+				throw new IOException("Snapshot is truncated: " + numberOfBuckets + " Buckets do not fit into the rest of the file");
+			}
+			long timestamp = snapshotClock;
+			for (long i = 0; i < numberOfBuckets; i++) {
+				//The size of the Buckets is not known before they are decoded, so the room for the largest one is checked
+				ensure(11);
+				int exponent = buffer.get();
+				long delta = getVarLong();
+				timestamp = i == 0 ? snapshotClock - delta : timestamp + delta;
+				if (delta < 0 || timestamp < 0 || timestamp > snapshotClock) {
+					throw new IOException("Bucket " + i + " has the timestamp " + timestamp + " outside of the clock " + snapshotClock);
+				}
+				histogram.appendBucket(timestamp, exponent);
+			}
+		}
+
+		long getVarLong () {
+			long value = 0;
+			for (int shift = 0; ; shift += 7) {
+				byte b = buffer.get();
+				value |= (long) (b & 0x7F) << shift;
+				if (b >= 0) {
+					return value;
+				}
+			}
+		}
+
+		@Override
+		public void close () throws IOException {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,92 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+/**
+ * Stream of elements from a file or from the standard input.
+ *
+ * In text format every character '0' or '1' is an element and all other characters (line breaks, spaces, ...) are ignored.
+ * In packed format every byte contains 8 elements, the lowest bit first.
+ *
+ * @author Sven Winkler
+ */
+public class InputStreamElementSource implements ElementSource {
+
+	private final InputStream input;
+	private final boolean packed;
+	private byte [] buffer = new byte [0];
+
+	/**
+	 * @param input		The stream, which is read in blocks (no additional buffering is needed).
+	 * @param packed	True for the packed format, false for the text format.
+	 */
+	public InputStreamElementSource (InputStream input, boolean packed) {
+		this.input = input;
+		this.packed = packed;
+	}
+
+	@Override
+	public int fill (long [] words) {
+		try {
+			return packed ? fillPacked(words) : fillText(words);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private int fillPacked (long [] words) throws IOException {
+		int length = readFully(8 * words.length);
+		if (length == 0) {
+			return -1;
+		}
+		Arrays.fill(words, 0, (length + 7) >>> 3, 0L);
+		for (int i = 0; i < length; i++) {
+			words[i >>> 3] |= (buffer[i] & 0xFFL) << ((i & 7) << 3);
+		}
+		return 8 * length;
+	}
+
+	private int fillText (long [] words) throws IOException {
+		int elements = 0;
+		int capacity = 64 * words.length;
+		Arrays.fill(words, 0L);
+		while (elements < capacity) {
+			//Read at most as many characters as elements are missing, so no character is read too much
+			int length = input.read(ensureBuffer(capacity - elements), 0, capacity - elements);
+			if (length < 0) {
+				break;
+			}
+			for (int i = 0; i < length; i++) {
+				byte character = buffer[i];
+				if (character == '1') {
+					words[elements >>> 6] |= 1L << elements;
+					elements++;
+				} else if (character == '0') {
+					elements++;
+				}
+			}
+		}
+		return elements == 0 ? -1 : elements;
+	}
+
+	private int readFully (int length) throws IOException {
+		ensureBuffer(length);
+		int total = 0;
+		while (total < length) {
+			int read = input.read(buffer, total, length - total);
+			if (read < 0) {
+				break;
+			}
+			total += read;
+		}
+		return total;
+	}
+
+	private byte [] ensureBuffer (int length) {
+		if (buffer.length < length) {
+			buffer = new byte [length];
+		}
+		return buffer;
+	}
+}
@@ -0,0 +1,411 @@
+/**
+ * Holds one histogram per key (per user, per endpoint, per sensor, ...) in an open-addressing hash map with primitive long keys.
+ *
+ * All keys share one clock: every batch of updates is one step of the window, and a key that is not part of a batch receives a zero.
+ * Keys only get a histogram when they receive their first one, and a key is evicted once all its Buckets are expired,
+ * so the map only contains keys that had a one in the current window.
+ *
+ * With a memory budget ("setMemoryBudget") the store trades precision for memory when the number of keys grows:
+ * all histograms share one active error parameter, which is lowered as soon as the store would exceed the budget
+ * and raised again when the keys are evicted and the larger histograms fit with some headroom.
+ *
+ * @author Sven Winkler
+ */
+public class KeyedHistogramStore {
+
+	private static final int MIN_CAPACITY = 16;
+
+	private final int windowSize;
+	private final int errParam;
+
+	/** Number of batches that have been processed so far. */
+	private long clock;
+
+	private long [] keys;
+	private ExponentialHistogram [] histograms;
+	private int size;
+
+	/** Next slot that is checked for an idle key. */
+	private int evictionCursor;
+
+	/** Budget of "memoryInBytes", Long.MAX_VALUE if there is none. */
+	private long memoryBudget = Long.MAX_VALUE;
+
+	/** Error parameter of the limits of all histograms, at most errParam. */
+	private int activeErrParam;
+
+	/**
+	 * @param windowSize	Size of the Sliding Window, in batches.
+	 * @param errParam	The error parameter of every histogram.
+	 */
+	public KeyedHistogramStore (int windowSize, int errParam) {
+		ExponentialHistogram.checkParameters(windowSize, errParam);
+		this.windowSize = windowSize;
+		this.errParam = errParam;
+		activeErrParam = errParam;
+		keys = new long [MIN_CAPACITY];
+		histograms = new ExponentialHistogram [MIN_CAPACITY];
+	}
+
+	/**
+	 * Processes one batch: the window of every key moves one step, and the keys of the batch receive their element.
+	 * If a key occurs several times in a batch, it counts as a one if any of its elements is a one.
+	 * @param batchKeys	Keys of the elements.
+	 * @param bits		0 or 1 for every key.
+	 * @param length	Number of (key, bit) pairs in the arrays.
+	 */
+	public void update (long [] batchKeys, int [] bits, int length) {
+		update(clock + 1, batchKeys, bits, 0, length);
+	}
+
+	/**
+	 * Processes one batch at a given clock value, for several stores that share one clock (see the class "HistogramServer"):
+	 * the batches between the current clock and the time had no element for this store, so its keys receive zeros for them.
+	 * @param time		Clock value of the batch, larger than the clock of the store.
+	 * @param batchKeys	Keys of the elements.
+	 * @param bits		0 or 1 for every key.
+	 * @param from		Index of the first (key, bit) pair of the batch in the arrays.
+	 * @param to		Index after the last pair.
+	 */
+	public void update (long time, long [] batchKeys, int [] bits, int from, int to) {
+		if (time <= clock) {
+			throw new IllegalArgumentException("Time " + time + " is not after the clock " + clock);
+		}
+		long steps = time - clock;
+		clock = time;
+		for (int i = from; i < to; i++) {
+			if (bits[i] == 1) {
+				ExponentialHistogram histogram = histogramFor(batchKeys[i]);
+				histogram.advanceTo(clock);
+				if (histogram.isEmpty() || histogram.newestTimestamp() != clock) {
+					histogram.add();
+				}
+			}
+		}
+		//Every slot is still checked once per window, also if the store skipped batches
+		if (evictIdleKeys((int) Math.min(keys.length, steps * (keys.length / windowSize + 1))) > 0) {
+			adaptToBudget();
+		}
+	}
+
+	/**
+	 * Moves the clock of the store forward to a time without processing a batch, i.e. the batches up to the time
+	 * had no element for this store. Nothing happens if the clock is already at or after the time.
+	 * @param time		Clock value of the newest batch.
+	 */
+	public void advanceTo (long time) {
+		clock = Math.max(clock, time);
+	}
+
+	/**
+	 * Returns the estimated number of ones of a key in the current window.
+	 * @param key		Some key.
+	 * @return		The estimate of the histogram of the key, 0 if the key had no one in the window.
+	 */
+	public long estimate (long key) {
+		int slot = find(key);
+		if (slot < 0) {
+			return 0;
+		}
+		histograms[slot].advanceTo(clock);
+		return histograms[slot].estimatedNumberOfOnes();
+	}
+
+	/**
+	 * @return		Number of keys that have a histogram.
+	 */
+	public int size () {
+		return size;
+	}
+
+	public long getClock () {
+		return clock;
+	}
+
+	/**
+	 * Approximate heap memory of the store (hash map arrays and all histograms).
+	 * @return		Number of bytes.
+	 */
+	public long memoryInBytes () {
+		long bytes = ExponentialHistogram.arrayBytes(8, keys.length) + ExponentialHistogram.arrayBytes(4, histograms.length);
+		for (int slot = 0; slot < histograms.length; slot++) {
+			if (histograms[slot] != null) {
+				bytes += histograms[slot].memoryInBytes();
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * @return		Memory of the store divided by the number of keys, 0 if the store is empty.
+	 */
+	public double bytesPerKey () {
+		return size == 0 ? 0 : (double) memoryInBytes() / size;
+	}
+
+	/**
+	 * Removes all keys whose Buckets are expired.
+	 * The method "update" does this incrementally, so that every slot is checked once per window.
+	 * @return		Number of keys that were removed.
+	 */
+	public int evictIdleKeys () {
+		int removed = evictIdleKeys(keys.length);
+		adaptToBudget();
+		return removed;
+	}
+
+	/**
+	 * Limits the memory of the store. Whenever a key is added or evicted, the store chooses the largest error parameter
+	 * (at most the one of the store) with which all histograms fit into the budget, and changes the limits of all histograms
+	 * to it (see "ExponentialHistogram.setActiveErrParam"); this costs a pass over all keys, but only when the parameter changes.
+	 * The parameter is only raised if the larger histograms use at most 7/8 of the budget, so it does not change back and forth
+	 * while the number of keys stays near the limit. Below the error parameter 2 the histograms cannot shrink any more,
+	 * so a budget that is too small for the keys is exceeded.
+	 * @param bytes		Budget of "memoryInBytes", Long.MAX_VALUE for none.
+	 */
+	public void setMemoryBudget (long bytes) {
+		if (bytes < 1) {
+			throw new IllegalArgumentException("Memory budget must be positive: " + bytes);
+		}
+		memoryBudget = bytes;
+		adaptToBudget();
+	}
+
+	public long getMemoryBudget () {
+		return memoryBudget;
+	}
+
+	/**
+	 * @return		Error parameter of the current limits of all histograms.
+	 */
+	public int getActiveErrParam () {
+		return activeErrParam;
+	}
+
+	/**
+	 * Returns the relative error that the estimate of a key is guaranteed to have at most, with the limits of the budget.
+	 * @param key		Some key.
+	 * @return		Guaranteed relative error of the histogram of the key (see "ExponentialHistogram.guaranteedRelativeError"),
+	 * 			the one of the active error parameter if the key has no histogram.
+	 */
+	public double guaranteedRelativeError (long key) {
+		int slot = find(key);
+		if (slot < 0) {
+			return HistogramConfig.relativeErrorBound(activeErrParam);
+		}
+		histograms[slot].advanceTo(clock);
+		return histograms[slot].guaranteedRelativeError();
+	}
+
+	public int getWindowSize () {
+		return windowSize;
+	}
+
+	public int getErrParam () {
+		return errParam;
+	}
+
+	/**
+	 * Number of slots of the hash map, for iterating over the keys with "keyAt" and "histogramAt".
+	 * @return		Capacity of the hash map.
+	 */
+	int capacity () {
+		return keys.length;
+	}
+
+	long keyAt (int slot) {
+		return keys[slot];
+	}
+
+	/**
+	 * @param slot		Slot of the hash map.
+	 * @return		The histogram in the slot, null if the slot is empty.
+	 */
+	ExponentialHistogram histogramAt (int slot) {
+		return histograms[slot];
+	}
+
+	/**
+	 * Puts a restored histogram into the store (see the class "HistogramSnapshots").
+	 * The histogram gets the active error parameter of the store, and the store adapts it to the memory budget at once,
+	 * so a restore cannot exceed the budget until the next update.
+	 * @param key		Key of the histogram, which must not be in the store yet.
+	 * @param histogram	Histogram with the window size and error parameter of the store.
+	 */
+	void restore (long key, ExponentialHistogram histogram) {
+		if (2 * (size + 1) > keys.length) {
+			resize(2 * keys.length);
+		}
+		int mask = keys.length - 1;
+		int slot = hash(key, mask);
+		while (histograms[slot] != null) {
+			if (keys[slot] == key) {
+				throw new IllegalArgumentException("Key already in the store: " + key);
+			}
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = key;
+		histograms[slot] = histogram;
+		size++;
+		if (activeErrParam != errParam) {
+			histogram.setActiveErrParam(activeErrParam);
+		}
+		adaptToBudget();
+	}
+
+	/**
+	 * Sets the clock of a restored store and makes room for the given number of keys, so the map does not grow while it is filled.
+	 * @param time		Clock of the store.
+	 * @param numberOfKeys	Expected number of keys.
+	 */
+	void restoreClock (long time, int numberOfKeys) {
+		clock = time;
+		int capacity = MIN_CAPACITY;
+		while (capacity < 2 * numberOfKeys) {
+			capacity *= 2;
+		}
+		if (capacity > keys.length) {
+			resize(capacity);
+		}
+	}
+
+	/*----------------------------------------------------------------------------------*/
+
+	/**
+	 * Chooses the active error parameter for the current number of keys and applies it to all histograms, if it changed.
+	 */
+	private void adaptToBudget () {
+		if (memoryBudget == Long.MAX_VALUE) {
+			if (activeErrParam != errParam) {
+				applyErrParam(errParam);
+			}
+			return;
+		}
+		int numberOfClasses = HistogramConfig.numberOfClasses(windowSize);
+		long mapBytes = ExponentialHistogram.arrayBytes(8, keys.length) + ExponentialHistogram.arrayBytes(4, histograms.length);
+		long perKey = HistogramConfig.memoryInBytes(activeErrParam, numberOfClasses);
+		if (mapBytes + size * perKey > memoryBudget) {
+			long available = (memoryBudget - mapBytes) / Math.max(size, 1);
+			applyErrParam(HistogramConfig.largestErrParam(available, errParam, numberOfClasses));
+		} else if (activeErrParam < errParam) {
+			long available = (memoryBudget - memoryBudget / 8 - mapBytes) / Math.max(size, 1);
+			int param = HistogramConfig.largestErrParam(available, errParam, numberOfClasses);
+			if (param > activeErrParam) {
+				applyErrParam(param);
+			}
+		}
+	}
+
+	private void applyErrParam (int param) {
+		activeErrParam = param;
+		for (ExponentialHistogram histogram : histograms) {
+			if (histogram != null) {
+				histogram.setActiveErrParam(param);
+			}
+		}
+	}
+
+	/**
+	 * Checks a number of slots, starting at the eviction cursor, and removes the keys without a one in the window.
+	 * @param slots		Number of slots to check.
+	 * @return		Number of keys that were removed.
+	 */
+	private int evictIdleKeys (int slots) {
+		int removed = 0;
+		for (int i = 0; i < slots && size > 0; i++) {
+			int slot = evictionCursor;
+			ExponentialHistogram histogram = histograms[slot];
+			if (histogram != null) {
+				histogram.advanceTo(clock);
+				if (histogram.isEmpty()) {
+					remove(slot);
+					removed++;
+					//The backward shift of "remove" can move the next key into this slot, so the slot is checked again
+					i--;
+					continue;
+				}
+			}
+			evictionCursor = (evictionCursor + 1) & (keys.length - 1);
+		}
+		return removed;
+	}
+
+	private static int hash (long key, int mask) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+
+	private int find (long key) {
+		int mask = keys.length - 1;
+		for (int slot = hash(key, mask); histograms[slot] != null; slot = (slot + 1) & mask) {
+			if (keys[slot] == key) {
+				return slot;
+			}
+		}
+		return -1;
+	}
+
+	private ExponentialHistogram histogramFor (long key) {
+		int mask = keys.length - 1;
+		int slot = hash(key, mask);
+		while (histograms[slot] != null) {
+			if (keys[slot] == key) {
+				return histograms[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		if (2 * (size + 1) > keys.length) {
+			resize(2 * keys.length);
+			return histogramFor(key);
+		}
+		ExponentialHistogram histogram = new ExponentialHistogram(windowSize, errParam, windowSize, activeErrParam);
+		histogram.advanceTo(clock);
+		keys[slot] = key;
+		histograms[slot] = histogram;
+		size++;
+		if (memoryBudget != Long.MAX_VALUE) {
+			adaptToBudget();
+		}
+		return histogram;
+	}
+
+	/**
+	 * Removes the key of a slot and moves the following keys of the probe sequence back, so no tombstones are needed.
+	 * @param slot		Slot of the key to remove.
+	 */
+	private void remove (int slot) {
+		int mask = keys.length - 1;
+		int hole = slot;
+		for (int next = (slot + 1) & mask; histograms[next] != null; next = (next + 1) & mask) {
+			int home = hash(keys[next], mask);
+			//Move the key into the hole, if the hole lies between its home slot and its current slot
+			if (((next - home) & mask) >= ((next - hole) & mask)) {
+				keys[hole] = keys[next];
+				histograms[hole] = histograms[next];
+				hole = next;
+			}
+		}
+		histograms[hole] = null;
+		size--;
+	}
+
+	private void resize (int newCapacity) {
+		long [] oldKeys = keys;
+		ExponentialHistogram [] oldHistograms = histograms;
+		keys = new long [newCapacity];
+		histograms = new ExponentialHistogram [newCapacity];
+		int mask = newCapacity - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldHistograms[i] != null) {
+				int slot = hash(oldKeys[i], mask);
+				while (histograms[slot] != null) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = oldKeys[i];
+				histograms[slot] = oldHistograms[i];
+			}
+		}
+		evictionCursor = 0;
+	}
+}
@@ -0,0 +1,100 @@
+import java.util.Random;
+
+/**
+ * Test of the class "KeyedHistogramStore": after "evictIdleKeys" no key without a one in the window may be left,
+ * so a second call right after the first one has to remove nothing, and every remaining key has to have a one in the window.
+ * Histograms that are restored into a store with a memory budget have to fit into the budget right away.
+ *
+ * Usage: java KeyedHistogramStoreTest
+ * The program exits with the status 1, if a check fails.
+ *
+ * @author Sven Winkler
+ */
+public class KeyedHistogramStoreTest {
+
+	static final int WINDOW_SIZE = 100;
+	static final int ERR_PARAM = 10;
+	static final int KEYS = 20_000;
+	static final int BATCH = 500;
+
+	public static void main (String[] args) {
+		int failures = 0;
+		for (long seed = 1; seed <= 5; seed++) {
+			failures += ExponentialHistogramTest.report("eviction, seed " + seed, checkEviction(new Random(seed)));
+		}
+		failures += ExponentialHistogramTest.report("restore within the budget", checkRestoreBudget(new Random(1)));
+		if (failures > 0) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Feeds batches of random keys into a store, then lets all but a few keys fall out of the window and evicts them.
+	 * @return		Description of the first violation, null if there is none.
+	 */
+	static String checkEviction (Random random) {
+		KeyedHistogramStore store = new KeyedHistogramStore(WINDOW_SIZE, ERR_PARAM);
+		long [] keys = new long [BATCH];
+		int [] bits = new int [BATCH];
+		for (int batch = 0; batch < 3 * WINDOW_SIZE; batch++) {
+			//In the last window only the first 100 keys are active
+			int activeKeys = batch < 2 * WINDOW_SIZE ? KEYS : 100;
+			for (int i = 0; i < BATCH; i++) {
+				keys[i] = random.nextInt(activeKeys);
+				bits[i] = random.nextInt(2);
+			}
+			store.update(keys, bits, BATCH);
+		}
+
+		store.evictIdleKeys();
+		int removedAgain = store.evictIdleKeys();
+		if (removedAgain != 0) {
+			return "a second evictIdleKeys removed " + removedAgain + " keys";
+		}
+		int active = 0;
+		for (long key = 0; key < KEYS; key++) {
+			if (store.estimate(key) > 0) {
+				active++;
+			}
+		}
+		if (active != store.size()) {
+			return store.size() + " keys are left, but only " + active + " have a one in the window";
+		}
+		return null;
+	}
+
+	/**
+	 * Fills a store without a budget, then restores its histograms into a store with two thirds of its memory as the budget
+	 * (half of it would be below the memory of the histograms with the smallest error parameter).
+	 * @return		Description of the violation, null if the restored store stays within the budget.
+	 */
+	static String checkRestoreBudget (Random random) {
+		KeyedHistogramStore full = new KeyedHistogramStore(WINDOW_SIZE, ERR_PARAM);
+		long [] keys = new long [BATCH];
+		int [] bits = new int [BATCH];
+		for (int batch = 0; batch < WINDOW_SIZE; batch++) {
+			for (int i = 0; i < BATCH; i++) {
+				keys[i] = random.nextInt(KEYS);
+				bits[i] = random.nextInt(2);
+			}
+			full.update(keys, bits, BATCH);
+		}
+
+		long budget = full.memoryInBytes() * 2 / 3;
+		KeyedHistogramStore restored = new KeyedHistogramStore(WINDOW_SIZE, ERR_PARAM);
+		restored.setMemoryBudget(budget);
+		restored.restoreClock(full.getClock(), full.size());
+		for (int slot = 0; slot < full.capacity(); slot++) {
+			if (full.histogramAt(slot) != null) {
+				restored.restore(full.keyAt(slot), full.histogramAt(slot));
+			}
+		}
+		if (restored.size() != full.size()) {
+			return restored.size() + " of " + full.size() + " keys restored";
+		}
+		if (restored.memoryInBytes() > budget) {
+			return "the restored store needs " + restored.memoryInBytes() + " bytes, the budget is " + budget;
+		}
+		return null;
+	}
+}
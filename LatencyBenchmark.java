@@ -0,0 +1,82 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Latency percentiles of single updates: the time of every update is taken on its own, so rare slow updates (the merge cascades
+ * of "ExponentialHistogram") show up in the tail instead of being averaged away as in the class "HistogramBenchmark".
+ * The row "System.nanoTime" is the cost of the measurement alone and is contained in every other row.
+ *
+ * Usage: java LatencyBenchmark [output file] [number of samples]
+ *
+ * @author Sven Winkler
+ */
+public class LatencyBenchmark {
+
+	static final int [] WINDOW_SIZES = {10_000, 1_000_000};
+	static final int [] ERR_PARAMS = {10, 50};
+	static final double [] PERCENTILES = {0.5, 0.99, 0.999, 0.9999};
+
+	/**
+	 * One update of an engine.
+	 */
+	interface Engine {
+		void update (int newElement);
+	}
+
+	public static void main (String[] args) throws IOException {
+		Path output = Paths.get(args.length > 0 ? args[0] : "latency-results.csv");
+		int samples = args.length > 1 ? Integer.parseInt(args[1]) : 5_000_000;
+
+		try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(output))) {
+			String header = "benchmark,windowSize,errParam,p50,p99,p99.9,p99.99,max";
+			writer.println(header);
+			System.out.println(header);
+			report(writer, "System.nanoTime", 0, 0, measure(newElement -> { }, 0, samples));
+			for (int windowSize : WINDOW_SIZES) {
+				for (int errParam : ERR_PARAMS) {
+					ExponentialHistogram histogram = new ExponentialHistogram(windowSize, errParam);
+					report(writer, "ExponentialHistogram.update", windowSize, errParam, measure(histogram::update, 2L * windowSize, samples));
+					WaveHistogram waves = new WaveHistogram(windowSize, errParam);
+					report(writer, "WaveHistogram.update", windowSize, errParam, measure(waves::update, 2L * windowSize, samples));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Fills the window, warms the engine up and takes the time of single updates.
+	 * @param engine	The engine.
+	 * @param warmup	Number of updates before the measurement.
+	 * @param samples	Number of measured updates.
+	 * @return		Sorted times in nanoseconds.
+	 */
+	static long [] measure (Engine engine, long warmup, int samples) {
+		long position = 0;
+		for (; position < Math.max(warmup, samples); position++) {
+			engine.update(HistogramBenchmark.bit(position));
+		}
+		long [] times = new long [samples];
+		for (int i = 0; i < samples; i++) {
+			int newElement = HistogramBenchmark.bit(position++);
+			long start = System.nanoTime();
+			engine.update(newElement);
+			times[i] = System.nanoTime() - start;
+		}
+		Arrays.sort(times);
+		return times;
+	}
+
+	static void report (PrintWriter writer, String benchmark, int windowSize, int errParam, long [] times) {
+		StringBuilder line = new StringBuilder(benchmark + "," + windowSize + "," + errParam);
+		for (double percentile : PERCENTILES) {
+			line.append(',').append(times[(int) Math.ceil(percentile * times.length) - 1]);
+		}
+		line.append(',').append(times[times.length - 1]);
+		writer.println(line);
+		System.out.println(line);
+	}
+}
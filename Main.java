@@ -1,3 +1,5 @@
+import java.io.IOException;
+
 /**
  * I present an implementation of the sliding window algorithm that was published in the year 2002 by Mayur Datar, Aristidis Gionis,
  * Piotr Indyk and Rajeev Motwani in the paper "Maintaining Stream Statistics Over Sliding Windows":
@@ -14,9 +16,18 @@
 
 public class Main {
 
-	public static void main(String[] args) {
+	/**
+	 * Starts the interactive demonstration, or the headless mode of the class "StreamRunner" if there are command line options.
+	 * @param args		Options of the headless mode.
+	 * @throws IOException	If the input file of the headless mode cannot be opened.
+	 */
+	public static void main(String[] args) throws IOException {
 
-		new SlidingWindowThread();
+		if (args.length > 0) {
+			StreamRunner.main(args);
+		} else {
+			new SlidingWindowThread();
+		}
 		
 	}
 
@@ -0,0 +1,74 @@
+import java.util.SplittableRandom;
+
+/**
+ * Bursty stream from a seeded generator: the stream alternates between bursts and quiet phases, whose lengths are
+ * geometrically distributed (a Markov chain with two states). Within a burst and within a quiet phase the elements are
+ * random with a density of their own, generated word by word as in the class "RandomElementSource".
+ *
+ * @author Sven Winkler
+ */
+public class MarkovElementSource implements ElementSource {
+
+	private final SplittableRandom random;
+	private final int burstDensity;
+	private final int quietDensity;
+	private final double burstLength;
+	private final double quietLength;
+
+	private boolean burst;
+	/** Number of elements that are left in the current phase. */
+	private long remaining;
+
+	/**
+	 * @param seed		Seed of the generator.
+	 * @param burstDensity	Probability of a one within a burst.
+	 * @param quietDensity	Probability of a one between two bursts.
+	 * @param burstLength	Mean number of elements of a burst (at least 1).
+	 * @param quietLength	Mean number of elements between two bursts (at least 1).
+	 */
+	public MarkovElementSource (long seed, double burstDensity, double quietDensity, double burstLength, double quietLength) {
+		if (!(burstLength >= 1 && quietLength >= 1)) {
+			throw new IllegalArgumentException("Mean phase lengths must be at least 1: " + burstLength + ", " + quietLength);
+		}
+		this.random = new SplittableRandom(seed);
+		this.burstDensity = RandomElementSource.density(burstDensity);
+		this.quietDensity = RandomElementSource.density(quietDensity);
+		this.burstLength = burstLength;
+		this.quietLength = quietLength;
+		remaining = phaseLength(quietLength);
+	}
+
+	@Override
+	public int fill (long [] words) {
+		for (int i = 0; i < words.length; i++) {
+			long word = 0;
+			int position = 0;
+			//Every phase that touches the word contributes a random word with its density, masked to its part of the word
+			while (position < 64) {
+				if (remaining == 0) {
+					burst = !burst;
+					remaining = phaseLength(burst ? burstLength : quietLength);
+				}
+				int piece = (int) Math.min(64 - position, remaining);
+				long mask = piece == 64 ? -1L : ((1L << piece) - 1) << position;
+				word |= RandomElementSource.randomWord(random, burst ? burstDensity : quietDensity) & mask;
+				position += piece;
+				remaining -= piece;
+			}
+			words[i] = word;
+		}
+		return 64 * words.length;
+	}
+
+	/**
+	 * @param mean		Mean length of the phase.
+	 * @return		Geometrically distributed length of at least 1.
+	 */
+	private long phaseLength (double mean) {
+		if (mean == 1) {
+			return 1;
+		}
+		double u = 1 - random.nextDouble();
+		return 1 + (long) (Math.log(u) / Math.log(1 - 1 / mean));
+	}
+}
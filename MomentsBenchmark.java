@@ -0,0 +1,149 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Benchmark of the class "WindowedMoments" against the exact approach, which keeps a copy of all values of the window
+ * in a ring buffer together with the running sums. Both are measured with the harness of the class "HistogramBenchmark"
+ * (update, and update followed by a query of mean and variance); the memory of both is printed beside the results.
+ *
+ * Usage: java MomentsBenchmark [output file] [measurement time in ms]
+ *
+ * @author Sven Winkler
+ */
+public class MomentsBenchmark {
+
+	static final int [] WINDOW_SIZES = {1_000, 100_000, 10_000_000};
+	static final int [] ERR_PARAMS = {10, 50};
+	static final int MAX_VALUE = 100_000;
+
+	/** Pre-generated values (like latencies in microseconds), so the generator is not part of the measurement. */
+	static final int [] VALUES = randomValues(1 << 16, 42);
+
+	/**
+	 * Exact moments of the window: every value is stored, and the sums are updated when a value enters and leaves the window.
+	 */
+	static final class ExactMoments {
+		final int [] window;
+		int position;
+		long count;
+		long sum;
+		long sumOfSquares;
+
+		ExactMoments (int windowSize) {
+			window = new int [windowSize];
+		}
+
+		void update (int value) {
+			int old = window[position];
+			window[position] = value;
+			sum += value - old;
+			sumOfSquares += (long) value * value - (long) old * old;
+			position = position + 1 == window.length ? 0 : position + 1;
+			count++;
+		}
+
+		double mean () {
+			long n = Math.min(count, window.length);
+			return n == 0 ? 0 : (double) sum / n;
+		}
+
+		double variance () {
+			long n = Math.min(count, window.length);
+			if (n == 0) {
+				return 0;
+			}
+			double mean = (double) sum / n;
+			return (double) sumOfSquares / n - mean * mean;
+		}
+
+		long memoryInBytes () {
+			return 40 + ExponentialHistogram.arrayBytes(4, window.length);
+		}
+	}
+
+	public static void main (String[] args) throws IOException {
+		Path output = Paths.get(args.length > 0 ? args[0] : "moments-benchmark-results.csv");
+		if (args.length > 1) {
+			HistogramBenchmark.measurementNanos = Long.parseLong(args[1]) * 1_000_000L;
+		}
+
+		List <HistogramBenchmark.Result> results = new ArrayList <HistogramBenchmark.Result> ();
+		for (int windowSize : WINDOW_SIZES) {
+			for (int errParam : ERR_PARAMS) {
+				WindowedMoments moments = new WindowedMoments(windowSize, MAX_VALUE, errParam);
+				for (int i = 0; i < windowSize; i++) {
+					moments.update(value(i));
+				}
+				System.out.println("# WindowedMoments windowSize=" + windowSize + " errParam=" + errParam + " bytes=" + moments.memoryInBytes());
+				results.add(benchmarkMoments(moments, errParam, false));
+				results.add(benchmarkMoments(moments, errParam, true));
+			}
+
+			ExactMoments exact = new ExactMoments(windowSize);
+			for (int i = 0; i < windowSize; i++) {
+				exact.update(value(i));
+			}
+			System.out.println("# ExactMoments windowSize=" + windowSize + " bytes=" + exact.memoryInBytes());
+			results.add(benchmarkExact(exact, false));
+			results.add(benchmarkExact(exact, true));
+		}
+
+		HistogramBenchmark.write(output, results);
+	}
+
+	/*----------------------------------------------------------------------------------*/
+
+	static HistogramBenchmark.Result benchmarkMoments (WindowedMoments moments, int errParam, boolean query) {
+		String name = query ? "WindowedMoments.update+mean+variance" : "WindowedMoments.update";
+		return HistogramBenchmark.measure(name, moments.getWindowSize(), errParam, new HistogramBenchmark.Operation() {
+			int position;
+			public long run (long iterations) {
+				double result = 0;
+				for (long i = 0; i < iterations; i++) {
+					moments.update(value(position++));
+					if (query) {
+						result += moments.estimatedMean() + moments.estimatedVariance();
+					}
+				}
+				return (long) result + moments.count();
+			}
+		});
+	}
+
+	static HistogramBenchmark.Result benchmarkExact (ExactMoments exact, boolean query) {
+		String name = query ? "ExactMoments.update+mean+variance" : "ExactMoments.update";
+		return HistogramBenchmark.measure(name, exact.window.length, 0, new HistogramBenchmark.Operation() {
+			int position;
+			public long run (long iterations) {
+				double result = 0;
+				for (long i = 0; i < iterations; i++) {
+					exact.update(value(position++));
+					if (query) {
+						result += exact.mean() + exact.variance();
+					}
+				}
+				return (long) result + exact.sum;
+			}
+		});
+	}
+
+	static int value (int position) {
+		return VALUES[position & (VALUES.length - 1)];
+	}
+
+	/**
+	 * @return		Values with a long tail: mostly small, some close to the maximum.
+	 */
+	static int [] randomValues (int length, long seed) {
+		SplittableRandom random = new SplittableRandom(seed);
+		int [] values = new int [length];
+		for (int i = 0; i < length; i++) {
+			values[i] = (int) Math.min(MAX_VALUE, -Math.log(1 - random.nextDouble()) * MAX_VALUE / 20);
+		}
+		return values;
+	}
+}
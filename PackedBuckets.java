@@ -0,0 +1,87 @@
+import java.util.Arrays;
+
+/**
+ * Packed representation of the Buckets of a histogram: every Bucket is one long that contains its timestamp and the exponent of its size.
+ * The lowest 6 bits hold the exponent, the other bits the timestamp, so sorting the longs sorts the Buckets by age.
+ * The array is reused when the list is filled again, so copying a histogram into it does not allocate memory.
+ *
+ * @author Sven Winkler
+ */
+public class PackedBuckets implements BucketView {
+
+	static final int EXPONENT_BITS = 6;
+	static final long EXPONENT_MASK = (1L << EXPONENT_BITS) - 1;
+
+	private long [] entries;
+	private int length;
+
+	public PackedBuckets () {
+		this(16);
+	}
+
+	/**
+	 * @param initialCapacity	Number of Buckets that fit into the list before it has to grow.
+	 */
+	public PackedBuckets (int initialCapacity) {
+		entries = new long [Math.max(initialCapacity, 1)];
+	}
+
+	/**
+	 * Encodes a Bucket in one long.
+	 * @param timestamp	Arrival number of the newest one in the Bucket (at most 2^57 - 1).
+	 * @param exponent	Exponent of the bucket size.
+	 * @return		The packed Bucket.
+	 */
+	public static long pack (long timestamp, int exponent) {
+		return timestamp << EXPONENT_BITS | exponent;
+	}
+
+	public static long timestampOf (long packedBucket) {
+		return packedBucket >>> EXPONENT_BITS;
+	}
+
+	public static int exponentOf (long packedBucket) {
+		return (int) (packedBucket & EXPONENT_MASK);
+	}
+
+	/**
+	 * Appends a Bucket, which must not be older than the Buckets that are already in the list.
+	 * @param packedBucket	Bucket encoded by the method "pack".
+	 */
+	public void add (long packedBucket) {
+		if (length == entries.length) {
+			entries = Arrays.copyOf(entries, 2 * length);
+		}
+		entries[length++] = packedBucket;
+	}
+
+	public void clear () {
+		length = 0;
+	}
+
+	/**
+	 * @param i		Index of the Bucket, 0 for the oldest one.
+	 * @return		The packed Bucket.
+	 */
+	public long get (int i) {
+		if (i >= length) {
+			throw new IndexOutOfBoundsException("Bucket " + i + " of " + length);
+		}
+		return entries[i];
+	}
+
+	@Override
+	public int numberOfBuckets () {
+		return length;
+	}
+
+	@Override
+	public long timestamp (int i) {
+		return timestampOf(get(i));
+	}
+
+	@Override
+	public int sizeExponent (int i) {
+		return exponentOf(get(i));
+	}
+}
@@ -0,0 +1,94 @@
+import java.util.SplittableRandom;
+
+/**
+ * Endless stream of random zeros and ones from a seeded generator, so a run can be repeated.
+ *
+ * The probability of a one (the density) is given with 16 bits of precision and produced by bit slicing: starting with
+ * the lowest set bit of the density, a random word is combined with the result by OR for a set bit and by AND for a cleared bit.
+ * Every step halves the distance to one or to zero, so 64 elements cost at most 16 random longs, and only one for the density 0.5.
+ *
+ * @author Sven Winkler
+ */
+public class RandomElementSource implements ElementSource {
+
+	/** Number of bits of the density. */
+	static final int DENSITY_BITS = 16;
+
+	private final SplittableRandom random;
+	private final int density;
+
+	/**
+	 * Creates a source of zeros and ones with equal probability.
+	 * @param seed		Seed of the generator.
+	 */
+	public RandomElementSource (long seed) {
+		this(seed, 0.5);
+	}
+
+	/**
+	 * @param seed		Seed of the generator.
+	 * @param density	Probability of a one, between 0 and 1.
+	 */
+	public RandomElementSource (long seed, double density) {
+		this(new SplittableRandom(seed), density(density));
+	}
+
+	private RandomElementSource (SplittableRandom random, int density) {
+		this.random = random;
+		this.density = density;
+	}
+
+	@Override
+	public int fill (long [] words) {
+		for (int i = 0; i < words.length; i++) {
+			words[i] = randomWord(random, density);
+		}
+		return 64 * words.length;
+	}
+
+	/**
+	 * Creates an independent source with the same density, for example for another thread.
+	 * The streams of both sources are statistically independent and still determined by the seed.
+	 * @return		The new source.
+	 */
+	public RandomElementSource split () {
+		return new RandomElementSource(random.split(), density);
+	}
+
+	/**
+	 * Converts a probability into the fixed-point density of "randomWord".
+	 * @param probability	Probability of a one, between 0 and 1.
+	 * @return		The density in units of 2^-16.
+	 */
+	static int density (double probability) {
+		if (!(probability >= 0 && probability <= 1)) {
+			throw new IllegalArgumentException("Density must be between 0 and 1: " + probability);
+		}
+		return (int) Math.round(probability * (1 << DENSITY_BITS));
+	}
+
+	/**
+	 * Generates 64 elements, every one of them is a one with the probability density / 2^16.
+	 * @param random	The generator.
+	 * @param density	Fixed-point density (0 to 2^16).
+	 * @return		The packed elements.
+	 */
+	static long randomWord (SplittableRandom random, int density) {
+		if (density == 0) {
+			return 0;
+		}
+		if (density == 1 << DENSITY_BITS) {
+			return -1L;
+		}
+		int bit = Integer.numberOfTrailingZeros(density);
+		long word = random.nextLong();
+		for (bit++; bit < DENSITY_BITS; bit++) {
+			if ((density >>> bit & 1) != 0) {
+				word |= random.nextLong();
+			} else {
+				word &= random.nextLong();
+			}
+		}
+		return word;
+	}
+}
@@ -0,0 +1,87 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * Passes the elements of another source through and writes them to a stream in the packed format of the class
+ * "InputStreamElementSource" (8 elements per byte, the lowest bit first). A recorded stream, for example a real stream
+ * from the standard input, can then be replayed exactly against another implementation of the histogram.
+ *
+ * The batches of the source do not have to be multiples of 8 elements; the last byte is completed with zeros by "close",
+ * and the source may deliver more elements than a consumer processes, so a replay should be limited to the number of processed elements.
+ *
+ * @author Sven Winkler
+ */
+public class RecordingElementSource implements ElementSource, Closeable {
+
+	private final ElementSource source;
+	private final OutputStream output;
+	private byte [] bytes = new byte [0];
+
+	/** Elements of the last batch that did not fill a byte, the oldest in bit 0. */
+	private int pending;
+	private int pendingBits;
+	private long recorded;
+
+	/**
+	 * @param source	Source of the elements.
+	 * @param output	Receiver of the recorded elements (should be buffered, it is written once per batch).
+	 */
+	public RecordingElementSource (ElementSource source, OutputStream output) {
+		this.source = source;
+		this.output = output;
+	}
+
+	@Override
+	public int fill (long [] words) {
+		int length = source.fill(words);
+		if (length <= 0) {
+			return length;
+		}
+		if (bytes.length < 8 * words.length + 1) {
+			bytes = new byte [8 * words.length + 1];
+		}
+
+		int n = 0;
+		for (int i = 0; i < length; i += 8) {
+			int bits = Math.min(8, length - i);
+			int value = (int) (words[i >>> 6] >>> (i & 63)) & ((1 << bits) - 1);
+			pending |= value << pendingBits;
+			pendingBits += bits;
+			if (pendingBits >= 8) {
+				bytes[n++] = (byte) pending;
+				pending >>>= 8;
+				pendingBits -= 8;
+			}
+		}
+		try {
+			output.write(bytes, 0, n);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		recorded += length;
+		return length;
+	}
+
+	/**
+	 * @return		Number of elements that have been recorded.
+	 */
+	public long recorded () {
+		return recorded;
+	}
+
+	/**
+	 * Writes the incomplete last byte and closes the stream.
+	 * @throws IOException	If the stream cannot be written.
+	 */
+	@Override
+	public void close () throws IOException {
+		if (pendingBits > 0) {
+			output.write(pending);
+			pending = 0;
+			pendingBits = 0;
+		}
+		output.close();
+	}
+}
@@ -1,4 +1,5 @@
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.random.RandomGenerator;
 
 /**
  * This class contains some help functions that are needed for the datastream and the window.
@@ -10,12 +11,22 @@ public class SlidingWindow {
 	
 	/**
 	 * Generates the element that enters the sliding window.
+	 * The generator of the current thread is used, so no generator is created per element.
 	 * 
 	 * @return	Zero or one.
 	 */
 	public static int generateNewElement () {
+		return generateNewElement(ThreadLocalRandom.current());
+	}
+
+	/**
+	 * Generates the element that enters the sliding window from a given generator, so a run can be repeated with the same seed.
+	 * 
+	 * @param random	Some generator, for example a seeded "SplittableRandom".
+	 * @return	Zero or one.
+	 */
+	public static int generateNewElement (RandomGenerator random) {
 
-		Random random = new Random();
 		int randomNumber = random.nextInt(10);
 		if (randomNumber < 5) {
 			return 0;
@@ -234,6 +234,22 @@ public class SlidingWindowHistogram {
 		return count;
 	}
 
+	/**
+	 * Returns the number of ones in the Sliding Window according to the algorithm, read directly from a view of the Buckets.
+	 * No array has to be built and no Bucket object is created.
+	 * @param buckets	The Buckets of the histogram, the oldest one first.
+	 * @return		Sum of the bucket sizes minus the half of the size of the last bucket (defined by the algorithm).
+	 */
+	public static long estimatedNumberOfOnes (BucketView buckets) {
+		int numberOfBuckets = buckets.numberOfBuckets();
+		long count = 0;
+		for (int i = 0; i < numberOfBuckets; i++) {
+			count += buckets.bucketSize(i);
+		}
+		if (numberOfBuckets > 0) count = count - buckets.bucketSize(0)/2;
+		return count;
+	}
+
 	/**
 	 * Method for console output
 	 * @param histogram	histogram
@@ -1,5 +1,4 @@
 import java.util.Arrays;
-import java.util.ArrayList;
 import java.util.Scanner;
 
 /**
@@ -45,9 +44,9 @@ public class SlidingWindowThread {
 		System.out.println(Arrays.toString(slidingWindow));
 
 		//Initial ("empty") histogram
-		ArrayList <Bucket> histogram = new ArrayList <Bucket> ();
-		int [] histToArr = SlidingWindowHistogram.histToArray(histogram);
-		int [][] histToMultArr = SlidingWindowHistogram.histToMultArray(histogram);
+		ExponentialHistogram histogram = new ExponentialHistogram(windowSize, errParam);
+		int [] histToArr = histogram.toArray();
+		int [][] histToMultArr = histogram.toMultArray();
 
 		System.out.println(Arrays.toString(histToArr));
 		System.out.println("Timestamp, Size : " + Arrays.deepToString(histToMultArr));
@@ -68,9 +67,9 @@ public class SlidingWindowThread {
 			System.out.println("Exact number of ones in the window: " + exactNumber + "\n");
 
 			//Updates the histogram according to the algorithm, based on the new character
-			histogram = SlidingWindowHistogram.updateHistogram(histogram, windowSize, newElement, errParam);
-			histToArr = SlidingWindowHistogram.histToArray(histogram);
-			histToMultArr = SlidingWindowHistogram.histToMultArray(histogram);		
+			histogram.update(newElement);
+			histToArr = histogram.toArray();
+			histToMultArr = histogram.toMultArray();
 			
 			System.out.println("The histogram contains the following buckets in the representation [Timestamp, Size]. ");
 			System.out.println(Arrays.deepToString(histToMultArr) + "\n");
@@ -79,7 +78,7 @@ public class SlidingWindowThread {
 			System.out.println(Arrays.toString(SlidingWindow.reverseArray(histToArr)) + "\n");
 
 			//Calculates the estimated number of ones in the window according to the algorithm
-			int estNum = SlidingWindowHistogram.estimatedNumberOfOnes(histToMultArr);
+			int estNum = (int) histogram.estimatedNumberOfOnes();
 
 			System.out.println("Estimated number of ones according to the algorithm: ");
 			System.out.println(estNum + "\n");
@@ -0,0 +1,222 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import javax.management.JMException;
+
+/**
+ * Headless mode of the program: processes a data stream from a source as fast as possible, without console output per element.
+ * The elements are read in batches of packed bits and fed into the histogram word by word.
+ * The estimate is emitted to a sink at a fixed interval of elements; optionally the exact number of ones is counted beside it.
+ *
+ * Usage: java Main --window 1000000 --err 10 --source random:42 --elements 1000000000 --interval 100000000 [--shadow]
+ * The source is "random[:seed]", "markov[:seed]", "stdin" or "file:path", the option "--packed" reads 8 elements per byte instead of characters.
+ * "--density p" sets the probability of a one of the random source and within the bursts of the Markov source, whose mean
+ * burst and pause lengths are set with "--bursts 1000:10000". "--pregenerate n" generates n elements up front and repeats them,
+ * "--record path" writes the stream in packed format, so that it can be replayed with "--source file:path --packed".
+ * Instead of "--err", "--epsilon 0.01" chooses the error parameter for a target relative error (see the class "HistogramConfig").
+ * With "--jmx name" the counters of the histogram are registered as an MXBean (see the class "CountingHistogramMetrics").
+ *
+ * @author Sven Winkler
+ */
+public class StreamRunner {
+
+	private static final int BATCH_WORDS = 1024;
+
+	private final ExponentialHistogram histogram;
+	private final ExactWindowCounter exactWindow;
+	private final ElementSource source;
+	private final EstimateSink sink;
+	private final long reportInterval;
+
+	/**
+	 * @param windowSize		Size of the Sliding Window.
+	 * @param errParam		The error parameter of the histogram.
+	 * @param source		Source of the elements.
+	 * @param sink			Receiver of the estimates.
+	 * @param reportInterval	Number of elements between two estimates.
+	 * @param shadow		True, if the exact number of ones should be counted and reported beside the estimate.
+	 */
+	public StreamRunner (int windowSize, int errParam, ElementSource source, EstimateSink sink, long reportInterval, boolean shadow) {
+		if (reportInterval < 1) {
+			throw new IllegalArgumentException("reportInterval must be positive: " + reportInterval);
+		}
+		this.histogram = new ExponentialHistogram(windowSize, errParam);
+		this.exactWindow = shadow ? new ExactWindowCounter(windowSize) : null;
+		this.source = source;
+		this.sink = sink;
+		this.reportInterval = reportInterval;
+	}
+
+	/**
+	 * Processes the stream until it ends or the maximum number of elements is reached.
+	 * @param maxElements	Maximum number of elements.
+	 * @return		Number of elements that were processed.
+	 */
+	public long run (long maxElements) {
+		long [] words = new long [BATCH_WORDS];
+		long elements = 0;
+		long nextReport = reportInterval;
+
+		while (elements < maxElements) {
+			int length = source.fill(words);
+			if (length < 0) {
+				break;
+			}
+			length = (int) Math.min(length, maxElements - elements);
+
+			for (int i = 0; 64 * i < length; i++) {
+				long word = words[i];
+				int bits = Math.min(64, length - 64 * i);
+
+				//Split the word, if an estimate is due within it
+				while (elements + bits >= nextReport) {
+					int head = (int) (nextReport - elements);
+					process(word, head);
+					word = head == 64 ? 0 : word >>> head;
+					bits -= head;
+					elements += head;
+					sink.report(elements, histogram.estimatedNumberOfOnes(), exactWindow == null ? -1 : exactWindow.exactSumOfOnes());
+					nextReport += reportInterval;
+				}
+				if (bits > 0) {
+					process(word, bits);
+					elements += bits;
+				}
+			}
+		}
+		return elements;
+	}
+
+	private void process (long word, int bits) {
+		histogram.update(word, bits);
+		if (exactWindow != null) {
+			exactWindow.update(word, bits);
+		}
+	}
+
+	/**
+	 * Starts the headless mode with the options of the command line (see the description of the class)
+	 * and prints the throughput to the error stream at the end.
+	 * @param args		Command line options.
+	 * @throws IOException	If the input file cannot be opened.
+	 */
+	public static void main (String[] args) throws IOException {
+		int windowSize = 1_000_000;
+		int errParam = 10;
+		double epsilon = 0;
+		String sourceName = "random";
+		boolean packed = false;
+		long maxElements = Long.MAX_VALUE;
+		long interval = 100_000_000L;
+		boolean shadow = false;
+		String jmxName = null;
+		double density = 0.5;
+		double burstLength = 1000;
+		double quietLength = 1000;
+		long pregenerate = 0;
+		String recordPath = null;
+
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+				case "--window":
+					windowSize = Integer.parseInt(args[++i]);
+					break;
+				case "--err":
+					errParam = Integer.parseInt(args[++i]);
+					break;
+				case "--epsilon":
+					epsilon = Double.parseDouble(args[++i]);
+					break;
+				case "--source":
+					sourceName = args[++i];
+					break;
+				case "--packed":
+					packed = true;
+					break;
+				case "--elements":
+					maxElements = (long) Double.parseDouble(args[++i]);
+					break;
+				case "--interval":
+					interval = (long) Double.parseDouble(args[++i]);
+					break;
+				case "--shadow":
+					shadow = true;
+					break;
+				case "--density":
+					density = Double.parseDouble(args[++i]);
+					break;
+				case "--bursts":
+					String [] lengths = args[++i].split(":");
+					burstLength = Double.parseDouble(lengths[0]);
+					quietLength = Double.parseDouble(lengths[1]);
+					break;
+				case "--pregenerate":
+					pregenerate = (long) Double.parseDouble(args[++i]);
+					break;
+				case "--record":
+					recordPath = args[++i];
+					break;
+				case "--jmx":
+					jmxName = args[++i];
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option: " + args[i]);
+			}
+		}
+
+		if (epsilon > 0) {
+			HistogramConfig config = HistogramConfig.forRelativeError(epsilon, windowSize);
+			errParam = config.getErrParam();
+			System.err.println(config);
+		}
+
+		ElementSource source;
+		InputStream input = null;
+		if (sourceName.equals("random") || sourceName.startsWith("random:")) {
+			long seed = sourceName.equals("random") ? 42 : Long.parseLong(sourceName.substring("random:".length()));
+			source = new RandomElementSource(seed, density);
+		} else if (sourceName.equals("markov") || sourceName.startsWith("markov:")) {
+			long seed = sourceName.equals("markov") ? 42 : Long.parseLong(sourceName.substring("markov:".length()));
+			source = new MarkovElementSource(seed, density, 0, burstLength, quietLength);
+		} else if (sourceName.equals("stdin")) {
+			source = new InputStreamElementSource(System.in, packed);
+		} else if (sourceName.startsWith("file:")) {
+			input = Files.newInputStream(Paths.get(sourceName.substring("file:".length())));
+			source = new InputStreamElementSource(input, packed);
+		} else {
+			throw new IllegalArgumentException("Unknown source: " + sourceName);
+		}
+		if (pregenerate > 0) {
+			source = new BufferedElementSource(source, pregenerate, true);
+		}
+		RecordingElementSource recorder = null;
+		if (recordPath != null) {
+			recorder = new RecordingElementSource(source, new BufferedOutputStream(Files.newOutputStream(Paths.get(recordPath)), 1 << 16));
+			source = recorder;
+		}
+
+		StreamRunner runner = new StreamRunner(windowSize, errParam, source, new CsvEstimateSink(System.out), interval, shadow);
+		if (jmxName != null) {
+			try {
+				new CountingHistogramMetrics(runner.histogram).register(jmxName);
+			} catch (JMException e) {
+				throw new IllegalArgumentException("Cannot register the metrics as " + jmxName, e);
+			}
+		}
+		long start = System.nanoTime();
+		long elements = runner.run(maxElements);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.flush();
+		System.err.printf("%d elements in %.3f s (%.0f elements per second)%n", elements, seconds, elements / seconds);
+
+		if (input != null) {
+			input.close();
+		}
+		if (recorder != null) {
+			recorder.close();
+		}
+	}
+}
@@ -0,0 +1,115 @@
+/**
+ * Histogram of the ones in a time-based window ("how many errors in the last 60 seconds"), instead of the last N elements.
+ *
+ * Every element comes with a monotonic event time (for example System.nanoTime() or milliseconds), which is used as the clock
+ * of the histogram: a Bucket expires when its timestamp is older than the horizon. A gap in the stream costs nothing but the
+ * Buckets that expire in it, and a burst of ones at the same time is added at once, so no idle tick is ever stepped through.
+ * The clock of the histogram counts from the first event time, so event times may have any origin and may be negative,
+ * as System.nanoTime() often is.
+ *
+ * Elements that arrive slightly out of order are accepted up to a tolerance: they are counted at the newest time seen so far,
+ * so they stay in the window at most "tolerance" longer than they should. Older elements are rejected.
+ *
+ * @author Sven Winkler
+ */
+public class TimeWindowHistogram {
+
+	private final long horizon;
+	private final long tolerance;
+	private final ExponentialHistogram histogram;
+	private long rejected;
+
+	/** Event time that corresponds to the clock value 0 of the histogram, set by the first element. */
+	private long origin;
+	private boolean started;
+
+	/**
+	 * @param horizon	Length of the window in units of the event time; the window at time t covers (t - horizon, t].
+	 * @param errParam	The error parameter, as for windows of N elements.
+	 * @param tolerance	How far (in units of the event time) an element may be older than the newest one and still be accepted.
+	 */
+	public TimeWindowHistogram (long horizon, int errParam, long tolerance) {
+		if (tolerance < 0) {
+			throw new IllegalArgumentException("tolerance must not be negative: " + tolerance);
+		}
+		this.horizon = horizon;
+		this.tolerance = tolerance;
+		//The size classes are sized for one one per time unit, more classes are added if the stream is denser
+		this.histogram = new ExponentialHistogram(horizon, errParam, horizon);
+	}
+
+	/**
+	 * Processes a new element.
+	 * @param eventTime	Time of the element.
+	 * @param newElement	0 or 1
+	 * @return		False, if the element is older than the tolerance allows and was therefore ignored.
+	 */
+	public boolean update (long eventTime, int newElement) {
+		return add(eventTime, newElement == 1 ? 1 : 0);
+	}
+
+	/**
+	 * Processes a burst of ones with the same event time in one step.
+	 * @param eventTime	Time of the ones.
+	 * @param ones		Number of ones.
+	 * @return		False, if the ones are older than the tolerance allows and were therefore ignored.
+	 */
+	public boolean add (long eventTime, long ones) {
+		if (!started) {
+			origin = eventTime;
+			started = true;
+		}
+		long now = histogram.getClock();
+		long time = eventTime - origin;
+		if (time > now) {
+			histogram.advanceTo(time);
+		} else if (now - time > tolerance) {
+			rejected++;
+			return false;
+		}
+
+		if (ones == 1) {
+			histogram.add();
+		} else if (ones > 1) {
+			histogram.add(ones);
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the number of ones in the window that ends at the given time.
+	 * @param time		End of the window; times before the newest event time are treated as the newest event time.
+	 * @return		Estimated number of ones in the window, 0 if no element has arrived yet.
+	 */
+	public long estimatedNumberOfOnes (long time) {
+		if (!started) {
+			return 0;
+		}
+		if (time - origin > histogram.getClock()) {
+			histogram.advanceTo(time - origin);
+		}
+		return histogram.estimatedNumberOfOnes();
+	}
+
+	public long getHorizon () {
+		return horizon;
+	}
+
+	public long getTolerance () {
+		return tolerance;
+	}
+
+	/**
+	 * @return		Newest event time seen so far, Long.MIN_VALUE if no element has arrived yet.
+	 */
+	public long getTime () {
+		return started ? origin + histogram.getClock() : Long.MIN_VALUE;
+	}
+
+	/**
+	 * @return		Number of elements that were rejected because they arrived too late.
+	 */
+	public long getRejected () {
+		return rejected;
+	}
+}
@@ -0,0 +1,85 @@
+import java.util.ArrayDeque;
+import java.util.Random;
+
+/**
+ * Test of the class "TimeWindowHistogram" against an exact queue of the event times of the ones, for streams whose event times
+ * start at a negative value (as System.nanoTime() often does), at 0 and at a large positive value. The stream contains gaps,
+ * elements that are slightly out of order and elements that are too late; every estimate has to stay within the relative
+ * error bound of the error parameter, and the first element must never be rejected.
+ *
+ * Usage: java TimeWindowHistogramTest
+ * The program exits with the status 1, if an estimate is outside of the bound.
+ *
+ * @author Sven Winkler
+ */
+public class TimeWindowHistogramTest {
+
+	static final long HORIZON = 60_000_000_000L;
+	static final long TOLERANCE = 5_000_000L;
+	static final int ERR_PARAM = 10;
+	static final long [] START_TIMES = {-5_000_000_000_000L, -1, 0, 1_000_000_000_000L};
+
+	public static void main (String[] args) {
+		int failures = 0;
+		for (long startTime : START_TIMES) {
+			failures += run(startTime, new Random(startTime));
+		}
+		if (failures > 0) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * @return		Number of estimates outside of the bound.
+	 */
+	static int run (long startTime, Random random) {
+		TimeWindowHistogram histogram = new TimeWindowHistogram(HORIZON, ERR_PARAM, TOLERANCE);
+		double bound = HistogramConfig.relativeErrorBound(ERR_PARAM);
+		ArrayDeque <Long> exact = new ArrayDeque <Long> ();
+		int failures = 0;
+		long checks = 0;
+
+		if (!histogram.update(startTime, 1) || histogram.getTime() != startTime) {
+			System.out.println("FAILED start=" + startTime + ": first element rejected or wrong time " + histogram.getTime());
+			failures++;
+		}
+		exact.add(startTime);
+
+		long time = startTime;
+		for (int i = 0; i < 1_000_000; i++) {
+			int step = random.nextInt(100);
+			if (step == 0) {
+				time += (long) (random.nextDouble() * 2 * HORIZON);
+			} else if (step < 50) {
+				time += random.nextInt(1_000_000);
+			}
+			//Every tenth element is late, within the tolerance or up to twice of it
+			long eventTime = random.nextInt(10) == 0 ? time - random.nextInt((int) (2 * TOLERANCE)) : time;
+			int newElement = random.nextInt(4) == 0 ? 1 : 0;
+			boolean accepted = histogram.update(eventTime, newElement);
+			if (accepted != (histogram.getTime() - eventTime <= TOLERANCE)) {
+				System.out.println("FAILED start=" + startTime + ": element at " + eventTime + " accepted=" + accepted + " at time " + histogram.getTime());
+				failures++;
+			}
+			if (accepted && newElement == 1) {
+				//A late one is counted at the newest time
+				exact.add(histogram.getTime());
+			}
+
+			if (i % 1000 == 0) {
+				long now = histogram.getTime();
+				while (!exact.isEmpty() && exact.peek() <= now - HORIZON) {
+					exact.poll();
+				}
+				long estimate = histogram.estimatedNumberOfOnes(now);
+				if (Math.abs(estimate - exact.size()) > bound * exact.size()) {
+					System.out.println("FAILED start=" + startTime + " time=" + now + ": estimate " + estimate + ", exact " + exact.size());
+					failures++;
+				}
+				checks++;
+			}
+		}
+		System.out.println("start=" + startTime + " checks=" + checks + " rejected=" + histogram.getRejected() + " failures=" + failures);
+		return failures;
+	}
+}
@@ -0,0 +1,194 @@
+/**
+ * Alternative engine with a constant worst-case time per element (deterministic waves, Gibbons and Tirthapura 2002),
+ * for ingest paths on which the merge cascade of the class "ExponentialHistogram" causes latency spikes.
+ *
+ * Every one gets its rank, the number of ones so far. A one whose rank is divisible by 2^j but not by 2^(j+1) belongs to level j,
+ * and every level keeps only its last C ones in a ring (C = errParam/2). All stored ones are also linked in the order of arrival,
+ * so the oldest one can be removed when it leaves the window. An arriving element therefore costs at most one expiration,
+ * one eviction from a full ring and one insertion, independent of the window size: there is no cascade.
+ *
+ * The number of ones in the window lies between the rank of the newest one that expired (r1) and the rank of the oldest stored one
+ * that is still in the window (r2). All ones between them were evicted from a full ring; if the one of the highest level among them
+ * has the level t, then r2 - r1 <= 2^(t+1), while at least (C-1) 2^(t+1) ones arrived after it. The middle of the interval
+ * therefore has the same relative error as the exponential histogram with the same error parameter: at most 1/(2C-2).
+ *
+ * @author Sven Winkler
+ */
+public class WaveHistogram {
+
+	private static final int NONE = -1;
+
+	private final int windowSize;
+	private final int errParam;
+	/** Capacity of the ring of every level. */
+	private final int capacity;
+	/** Highest level; ones of higher levels are stored in it. */
+	private final int topLevel;
+
+	/** Number of elements that have arrived so far. */
+	private long clock;
+	/** Number of ones that have arrived so far. */
+	private long rank;
+	/** Rank of the newest one that was removed because it left the window, 0 if none. */
+	private long expiredRank;
+
+	/** Stored ones: node i is slot i % capacity of the ring of level i / capacity. */
+	private final long [] positions;
+	private final long [] ranks;
+	private final int [] previous;
+	private final int [] next;
+
+	/** Oldest slot and number of stored ones of every level. */
+	private final int [] first;
+	private final int [] count;
+
+	/** Oldest and newest stored one in the order of arrival. */
+	private int head = NONE;
+	private int tail = NONE;
+
+	/**
+	 * Creates an empty histogram. All memory is allocated here.
+	 * @param windowSize	Size of the Sliding Window.
+	 * @param errParam	The error parameter: every level keeps errParam/2 ones, as every size class of the exponential histogram.
+	 */
+	public WaveHistogram (int windowSize, int errParam) {
+		ExponentialHistogram.checkParameters(windowSize, errParam);
+		this.windowSize = windowSize;
+		this.errParam = errParam;
+		capacity = Math.max(errParam / 2, 1);
+
+		//Ones of the top level are 2^topLevel > windowSize ranks apart, so C of them always reach back beyond the window
+		topLevel = 64 - Integer.numberOfLeadingZeros(windowSize);
+		int nodes = (topLevel + 1) * capacity;
+		positions = new long [nodes];
+		ranks = new long [nodes];
+		previous = new int [nodes];
+		next = new int [nodes];
+		first = new int [topLevel + 1];
+		count = new int [topLevel + 1];
+	}
+
+	/**
+	 * Processes a new element in constant time.
+	 * @param newElement	0 or 1 that is processed by the algorithm
+	 */
+	public void update (int newElement) {
+		clock++;
+
+		//Positions are unique, so at most the oldest stored one leaves the window in this step
+		if (head != NONE && clock - positions[head] >= windowSize) {
+			expiredRank = ranks[head];
+			unlink(head);
+		}
+
+		if (newElement == 1) {
+			rank++;
+			int level = Math.min(Long.numberOfTrailingZeros(rank), topLevel);
+			int base = level * capacity;
+			int slot;
+			if (count[level] == capacity) {
+				//The ring is full: its oldest one is replaced
+				slot = first[level];
+				first[level] = slot + 1 == capacity ? 0 : slot + 1;
+				int evicted = base + slot;
+				if (isLinked(evicted)) {
+					unlink(evicted);
+				}
+			} else {
+				slot = first[level] + count[level];
+				if (slot >= capacity) {
+					slot -= capacity;
+				}
+				count[level]++;
+			}
+			int node = base + slot;
+			positions[node] = clock;
+			ranks[node] = rank;
+			link(node);
+		}
+	}
+
+	/**
+	 * Returns the number of ones in the Sliding Window according to the algorithm, in constant time.
+	 * @return		Middle of the interval that contains the exact number of ones.
+	 */
+	public long estimatedNumberOfOnes () {
+		if (head == NONE) {
+			return 0;
+		}
+		//The exact number is between rank - ranks[head] + 1 and rank - expiredRank
+		return (2 * rank - ranks[head] - expiredRank + 1) / 2;
+	}
+
+	/**
+	 * @return		Number of ones that are stored.
+	 */
+	public int numberOfStoredOnes () {
+		int stored = 0;
+		for (int node = head; node != NONE; node = next[node]) {
+			stored++;
+		}
+		return stored;
+	}
+
+	/**
+	 * Approximate heap memory of the histogram (object header, fields and arrays with compressed references).
+	 * @return		Number of bytes.
+	 */
+	public long memoryInBytes () {
+		return 72 + 2 * ExponentialHistogram.arrayBytes(8, positions.length) + 2 * ExponentialHistogram.arrayBytes(4, previous.length)
+				+ 2 * ExponentialHistogram.arrayBytes(4, first.length);
+	}
+
+	public int getWindowSize () {
+		return windowSize;
+	}
+
+	public int getErrParam () {
+		return errParam;
+	}
+
+	/**
+	 * @return		Number of elements that have arrived so far.
+	 */
+	public long getClock () {
+		return clock;
+	}
+
+	/*----------------------------------------------------------------------------------*/
+
+	/**
+	 * A node of a full ring may already have left the list by expiration, then it must not be unlinked a second time.
+	 */
+	private boolean isLinked (int node) {
+		return previous[node] != NONE || head == node;
+	}
+
+	private void link (int node) {
+		previous[node] = tail;
+		next[node] = NONE;
+		if (tail == NONE) {
+			head = node;
+		} else {
+			next[tail] = node;
+		}
+		tail = node;
+	}
+
+	private void unlink (int node) {
+		int before = previous[node];
+		int after = next[node];
+		if (before == NONE) {
+			head = after;
+		} else {
+			next[before] = after;
+		}
+		if (after == NONE) {
+			tail = before;
+		} else {
+			previous[after] = before;
+		}
+		previous[node] = NONE;
+		next[node] = NONE;
+	}
+}
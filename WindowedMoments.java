@@ -0,0 +1,124 @@
+/**
+ * Mean and variance of the values in the Sliding Window of the last N values, for values between 0 and a maximum R
+ * (for example latencies in microseconds), in memory that grows with the logarithm of the window size and of R.
+ *
+ * Two histograms count the sum of the values and the sum of their squares, both in the way of the class "WindowedSumHistogram":
+ * a value v adds v ones to the first and v^2 ones to the second histogram at the same arrival number, so an update costs
+ * the logarithm of the value (times the error parameter), independent of the window size. The number of values in the window
+ * is known exactly, so the mean has the relative error of one histogram.
+ *
+ * The variance is computed as mean of squares minus square of the mean. Both terms have a relative error of at most e,
+ * so the absolute error of the variance is at most (3e + e^2) times the mean of the squares. If the values vary little
+ * compared to their mean, the two terms nearly cancel and the relative error of the variance can be much larger than e;
+ * subtracting a typical value before the update (and adding it to the mean afterwards) reduces the cancellation.
+ *
+ * @author Sven Winkler
+ */
+public class WindowedMoments {
+
+	private final int windowSize;
+	private final int maxValue;
+	private final ExponentialHistogram sum;
+	private final ExponentialHistogram sumOfSquares;
+
+	/**
+	 * @param windowSize	Number of values in the Sliding Window.
+	 * @param maxValue	Largest value that can arrive.
+	 * @param errParam	The error parameter of both histograms.
+	 */
+	public WindowedMoments (int windowSize, int maxValue, int errParam) {
+		ExponentialHistogram.checkParameters(windowSize, errParam);
+		if (maxValue < 1 || (long) maxValue * maxValue > Long.MAX_VALUE / windowSize) {
+			throw new IllegalArgumentException("maxValue out of range: " + maxValue);
+		}
+		this.windowSize = windowSize;
+		this.maxValue = maxValue;
+		this.sum = new ExponentialHistogram(windowSize, errParam, (long) windowSize * maxValue);
+		this.sumOfSquares = new ExponentialHistogram(windowSize, errParam, (long) windowSize * maxValue * maxValue);
+	}
+
+	/**
+	 * Chooses the error parameter for a target relative error of the sums (see the class "HistogramConfig").
+	 * @param windowSize	Number of values in the Sliding Window.
+	 * @param maxValue	Largest value that can arrive.
+	 * @param relativeError	Target relative error of the sum and of the mean.
+	 * @return		The moments with the smallest sufficient error parameter.
+	 */
+	public static WindowedMoments forRelativeError (int windowSize, int maxValue, double relativeError) {
+		return new WindowedMoments(windowSize, maxValue, HistogramConfig.forRelativeError(relativeError, windowSize).getErrParam());
+	}
+
+	/**
+	 * Processes a new value.
+	 * @param value		Value between 0 and the maximum value.
+	 */
+	public void update (int value) {
+		if (value < 0 || value > maxValue) {
+			throw new IllegalArgumentException("Value out of range [0, " + maxValue + "]: " + value);
+		}
+		long time = sum.getClock() + 1;
+		sum.advanceTo(time);
+		sumOfSquares.advanceTo(time);
+		if (value > 0) {
+			sum.add(value);
+			sumOfSquares.add((long) value * value);
+		}
+	}
+
+	/**
+	 * @return		Number of values in the window (exact).
+	 */
+	public long count () {
+		return Math.min(sum.getClock(), windowSize);
+	}
+
+	/**
+	 * @return		Estimated sum of the values in the window.
+	 */
+	public long estimatedSum () {
+		return sum.estimatedNumberOfOnes();
+	}
+
+	/**
+	 * @return		Estimated mean of the values in the window, 0 if no value has arrived.
+	 */
+	public double estimatedMean () {
+		long n = count();
+		return n == 0 ? 0 : (double) sum.estimatedNumberOfOnes() / n;
+	}
+
+	/**
+	 * @return		Estimated (population) variance of the values in the window, never negative.
+	 */
+	public double estimatedVariance () {
+		long n = count();
+		if (n == 0) {
+			return 0;
+		}
+		double mean = (double) sum.estimatedNumberOfOnes() / n;
+		double meanOfSquares = (double) sumOfSquares.estimatedNumberOfOnes() / n;
+		return Math.max(0, meanOfSquares - mean * mean);
+	}
+
+	/**
+	 * @return		Estimated standard deviation of the values in the window.
+	 */
+	public double estimatedStandardDeviation () {
+		return Math.sqrt(estimatedVariance());
+	}
+
+	public int getWindowSize () {
+		return windowSize;
+	}
+
+	public int getMaxValue () {
+		return maxValue;
+	}
+
+	/**
+	 * @return		Approximate heap memory of both histograms.
+	 */
+	public long memoryInBytes () {
+		return sum.memoryInBytes() + sumOfSquares.memoryInBytes();
+	}
+}
@@ -0,0 +1,70 @@
+/**
+ * Sum of the integers in the Sliding Window, for values between 0 and a maximum R (for example byte counts or latencies).
+ *
+ * A value v is handled like v ones that arrive at the same time, as described in the paper for sums of bounded integers.
+ * The ones are added to the histogram at once by the method "add(long)" of the class "ExponentialHistogram",
+ * so an update costs the logarithm of v instead of v single updates, and the relative error is the same as for counting ones.
+ *
+ * @author Sven Winkler
+ */
+public class WindowedSumHistogram {
+
+	private final int maxValue;
+	private final ExponentialHistogram histogram;
+
+	/**
+	 * @param windowSize	Size of the Sliding Window.
+	 * @param maxValue	Largest value that can arrive.
+	 * @param errParam	The error parameter, as for counting ones.
+	 */
+	public WindowedSumHistogram (int windowSize, int maxValue, int errParam) {
+		if (maxValue < 1) {
+			throw new IllegalArgumentException("maxValue must be positive: " + maxValue);
+		}
+		this.maxValue = maxValue;
+		this.histogram = new ExponentialHistogram(windowSize, errParam, (long) windowSize * maxValue);
+	}
+
+	/**
+	 * Processes a new value.
+	 * @param value		Value between 0 and the maximum value.
+	 */
+	public void update (int value) {
+		if (value < 0 || value > maxValue) {
+			throw new IllegalArgumentException("Value out of range [0, " + maxValue + "]: " + value);
+		}
+		histogram.advanceTo(histogram.getClock() + 1);
+		if (value > 0) {
+			histogram.add(value);
+		}
+	}
+
+	/**
+	 * @return		Estimated sum of the values in the window.
+	 */
+	public long estimatedSum () {
+		return histogram.estimatedNumberOfOnes();
+	}
+
+	public int getMaxValue () {
+		return maxValue;
+	}
+
+	public int getWindowSize () {
+		return (int) histogram.getWindowSize();
+	}
+
+	/**
+	 * @return		Number of values that have arrived so far.
+	 */
+	public long getClock () {
+		return histogram.getClock();
+	}
+
+	/**
+	 * @return		Number of Buckets, which grows with the logarithm of the window size times the maximum value.
+	 */
+	public int numberOfBuckets () {
+		return histogram.numberOfBuckets();
+	}
+}
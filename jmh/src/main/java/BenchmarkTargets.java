@@ -0,0 +1,133 @@
+import java.util.ArrayList;
+
+import benchmarks.Bits;
+import benchmarks.Targets;
+
+/**
+ * The measured implementations for the JMH benchmarks of the package "benchmarks" (see the interface "Targets").
+ *
+ * @author Sven Winkler
+ */
+public class BenchmarkTargets implements Targets {
+
+	@Override
+	public Engine engine (String implementation, int windowSize, int errParam) {
+		switch (implementation) {
+			case "ExponentialHistogram":
+				return fill(exponentialHistogram(windowSize, errParam), windowSize);
+			case "SlidingWindowHistogram":
+				return fill(slidingWindowHistogram(windowSize, errParam), windowSize);
+			case "WaveHistogram":
+				return fill(waveHistogram(windowSize, errParam), windowSize);
+			case "SlidingWindow":
+				return slidingWindow(windowSize);
+			case "ExactWindowCounter":
+				return fill(exactWindowCounter(windowSize), windowSize);
+			default:
+				throw new IllegalArgumentException("Unknown implementation: " + implementation);
+		}
+	}
+
+	/**
+	 * Processes two windows of elements, so the engine is in its steady state.
+	 */
+	static Engine fill (Engine engine, int windowSize) {
+		for (long i = 0; i < 2L * windowSize; i++) {
+			engine.update(Bits.bit(i));
+		}
+		return engine;
+	}
+
+	static Engine exponentialHistogram (int windowSize, int errParam) {
+		ExponentialHistogram histogram = new ExponentialHistogram(windowSize, errParam);
+		return new Engine() {
+			public void update (int newElement) {
+				histogram.update(newElement);
+			}
+
+			public void update (long word, int bits) {
+				histogram.update(word, bits);
+			}
+
+			public long estimate () {
+				return histogram.estimatedNumberOfOnes();
+			}
+		};
+	}
+
+	static Engine slidingWindowHistogram (int windowSize, int errParam) {
+		ArrayList <Bucket> histogram = new ArrayList <Bucket> ();
+		return new Engine() {
+			public void update (int newElement) {
+				SlidingWindowHistogram.updateHistogram(histogram, windowSize, newElement, errParam);
+			}
+
+			public void update (long word, int bits) {
+				throw new UnsupportedOperationException();
+			}
+
+			public long estimate () {
+				return SlidingWindowHistogram.estimatedNumberOfOnes(SlidingWindowHistogram.histToMultArray(histogram));
+			}
+		};
+	}
+
+	static Engine waveHistogram (int windowSize, int errParam) {
+		WaveHistogram waves = new WaveHistogram(windowSize, errParam);
+		return new Engine() {
+			public void update (int newElement) {
+				waves.update(newElement);
+			}
+
+			public void update (long word, int bits) {
+				throw new UnsupportedOperationException();
+			}
+
+			public long estimate () {
+				return waves.estimatedNumberOfOnes();
+			}
+		};
+	}
+
+	/**
+	 * An update of the array copies the whole window, so the window is filled directly instead of with "fill".
+	 */
+	static Engine slidingWindow (int windowSize) {
+		int [] initial = SlidingWindow.initialWindow(windowSize);
+		for (int i = 0; i < windowSize; i++) {
+			initial[i] = Bits.bit(i);
+		}
+		return new Engine() {
+			int [] window = initial;
+
+			public void update (int newElement) {
+				window = SlidingWindow.updateWindow(windowSize, window, newElement);
+			}
+
+			public void update (long word, int bits) {
+				throw new UnsupportedOperationException();
+			}
+
+			public long estimate () {
+				return SlidingWindow.exactSumOfOnes(window);
+			}
+		};
+	}
+
+	static Engine exactWindowCounter (int windowSize) {
+		ExactWindowCounter window = new ExactWindowCounter(windowSize);
+		return new Engine() {
+			public void update (int newElement) {
+				window.update(newElement);
+			}
+
+			public void update (long word, int bits) {
+				window.update(word, bits);
+			}
+
+			public long estimate () {
+				return window.exactSumOfOnes();
+			}
+		};
+	}
+}
@@ -0,0 +1,34 @@
+package benchmarks;
+
+import java.util.SplittableRandom;
+
+/**
+ * Pre-generated random elements, so the generator is not part of the measurement; the same elements as in the class
+ * "HistogramBenchmark" (seed 42).
+ *
+ * @author Sven Winkler
+ */
+public final class Bits {
+
+	static final long [] WORDS = randomBits(1 << 16, 42);
+
+	private Bits () {
+	}
+
+	public static int bit (long position) {
+		return (int) (WORDS[(int) (position >>> 6) & (WORDS.length - 1)] >>> position) & 1;
+	}
+
+	public static long word (long index) {
+		return WORDS[(int) index & (WORDS.length - 1)];
+	}
+
+	static long [] randomBits (int words, long seed) {
+		SplittableRandom random = new SplittableRandom(seed);
+		long [] bits = new long [words];
+		for (int i = 0; i < words; i++) {
+			bits[i] = random.nextLong();
+		}
+		return bits;
+	}
+}
@@ -0,0 +1,55 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The exact windows: "SlidingWindow.updateWindow" and "exactSumOfOnes" on the array of the original program,
+ * and the bit-packed "ExactWindowCounter" of the shadow mode.
+ *
+ * @author Sven Winkler
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExactWindowBenchmarks {
+
+	@Param({"SlidingWindow", "ExactWindowCounter"})
+	public String implementation;
+
+	@Param({"100", "1000", "10000", "100000", "1000000", "10000000"})
+	public int windowSize;
+
+	private Targets.Engine engine;
+	private long position;
+
+	@Setup
+	public void setup () {
+		engine = Targets.load().engine(implementation, windowSize, 0);
+	}
+
+	@Benchmark
+	public long updateWindow () {
+		engine.update(Bits.bit(position++));
+		return position;
+	}
+
+	@Benchmark
+	public long exactSumOfOnes () {
+		return engine.estimate();
+	}
+}
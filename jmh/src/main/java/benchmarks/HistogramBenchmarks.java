@@ -0,0 +1,60 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of the update and latency of the estimate of "ExponentialHistogram" and of the method "updateHistogram"
+ * of the class "SlidingWindowHistogram", for window sizes from 10^2 to 10^7. Every trial starts with a histogram
+ * that has processed two windows of elements; for "SlidingWindowHistogram" and a window of 10^7 this takes several minutes.
+ *
+ * @author Sven Winkler
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HistogramBenchmarks {
+
+	@Param({"ExponentialHistogram", "SlidingWindowHistogram"})
+	public String implementation;
+
+	@Param({"100", "1000", "10000", "100000", "1000000", "10000000"})
+	public int windowSize;
+
+	@Param({"4", "10", "50"})
+	public int errParam;
+
+	private Targets.Engine engine;
+	private long position;
+
+	@Setup
+	public void setup () {
+		engine = Targets.load().engine(implementation, windowSize, errParam);
+		position = 2L * windowSize;
+	}
+
+	@Benchmark
+	public long update () {
+		engine.update(Bits.bit(position++));
+		return position;
+	}
+
+	@Benchmark
+	public long estimatedNumberOfOnes () {
+		return engine.estimate();
+	}
+}
@@ -0,0 +1,54 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Percentiles of the time of single updates, so the merge cascades of "ExponentialHistogram" show up in the tail;
+ * "WaveHistogram" needs a constant time per element instead.
+ *
+ * @author Sven Winkler
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LatencyBenchmarks {
+
+	@Param({"ExponentialHistogram", "WaveHistogram"})
+	public String implementation;
+
+	@Param({"10000", "1000000"})
+	public int windowSize;
+
+	@Param({"10", "50"})
+	public int errParam;
+
+	private Targets.Engine engine;
+	private long position;
+
+	@Setup
+	public void setup () {
+		engine = Targets.load().engine(implementation, windowSize, errParam);
+		position = 2L * windowSize;
+	}
+
+	@Benchmark
+	public long update () {
+		engine.update(Bits.bit(position++));
+		return position;
+	}
+}
@@ -0,0 +1,45 @@
+package benchmarks;
+
+/**
+ * Factory of the measured implementations. JMH only accepts benchmarks in a named package, while the sources of the algorithm
+ * are in the default package, which a named package cannot import; the class "BenchmarkTargets" in the default package
+ * implements this interface and is loaded once by name, so the measured calls are plain interface calls that the JIT compiler inlines.
+ *
+ * @author Sven Winkler
+ */
+public interface Targets {
+
+	/**
+	 * One implementation of the Sliding Window, filled with two windows of elements of "Bits".
+	 */
+	interface Engine {
+		void update (int newElement);
+
+		/**
+		 * Processes the lowest bits of a word, bit 0 first; only supported by "ExponentialHistogram".
+		 */
+		void update (long word, int bits);
+
+		long estimate ();
+	}
+
+	/**
+	 * @param implementation	Simple name of the class: ExponentialHistogram, SlidingWindowHistogram, WaveHistogram,
+	 *				SlidingWindow or ExactWindowCounter (the last two are exact and ignore the error parameter).
+	 * @param windowSize		Size of the Sliding Window.
+	 * @param errParam		The error parameter.
+	 * @return			The filled engine.
+	 */
+	Engine engine (String implementation, int windowSize, int errParam);
+
+	/**
+	 * @return		The implementation of the default package.
+	 */
+	static Targets load () {
+		try {
+			return (Targets) Class.forName("BenchmarkTargets").getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("BenchmarkTargets is not on the class path", e);
+		}
+	}
+}
@@ -0,0 +1,54 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of packed updates of 64 elements per call, reported per element, for the histogram and the exact counter.
+ *
+ * @author Sven Winkler
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WordUpdateBenchmarks {
+
+	@Param({"ExponentialHistogram", "ExactWindowCounter"})
+	public String implementation;
+
+	@Param({"100", "1000", "10000", "100000", "1000000", "10000000"})
+	public int windowSize;
+
+	@Param({"4", "10", "50"})
+	public int errParam;
+
+	private Targets.Engine engine;
+	private long word;
+
+	@Setup
+	public void setup () {
+		engine = Targets.load().engine(implementation, windowSize, errParam);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(64)
+	public long update () {
+		engine.update(Bits.word(word++), 64);
+		return word;
+	}
+}
@@ -0,0 +1,61 @@
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Kernels of the class "HistogramColumns" with the Vector API (incubator module of Java 17), which process as many histograms
+ * per instruction as the CPU has long lanes. The class is compiled separately, because the module has to be added explicitly:
+ *
+ *     javac --add-modules jdk.incubator.vector -d out vector/VectorColumnKernels.java
+ *     java --add-modules jdk.incubator.vector -cp out ...
+ *
+ * "HistogramColumns" looks the kernels up at runtime and uses its scalar loops if the class or the module is missing.
+ *
+ * @author Sven Winkler
+ */
+public class VectorColumnKernels {
+
+	private static final VectorSpecies <Long> SPECIES = LongVector.SPECIES_PREFERRED;
+
+	/**
+	 * estimates[i] = totals[i] - oldestSizes[i] / 2 for the first length histograms.
+	 */
+	public static void estimates (long [] totals, long [] oldestSizes, long [] estimates, int length) {
+		int i = 0;
+		for (int upper = SPECIES.loopBound(length); i < upper; i += SPECIES.length()) {
+			LongVector total = LongVector.fromArray(SPECIES, totals, i);
+			LongVector oldest = LongVector.fromArray(SPECIES, oldestSizes, i);
+			total.sub(oldest.lanewise(VectorOperators.LSHR, 1)).intoArray(estimates, i);
+		}
+		for (; i < length; i++) {
+			estimates[i] = totals[i] - (oldestSizes[i] >>> 1);
+		}
+	}
+
+	/**
+	 * Writes the indices of the histograms whose estimate is greater than the threshold, in ascending order.
+	 * The estimates of a vector are compared without a mask (VectorMask.toLong allocates in Java 17): every index is written
+	 * and the position only moves on if the sign of threshold - estimate is negative, so the loop has no branch.
+	 * @return		Number of indices.
+	 */
+	public static int selectAbove (long [] totals, long [] oldestSizes, long threshold, int [] indices, int length) {
+		long [] lanes = new long [SPECIES.length()];
+		int found = 0;
+		int i = 0;
+		for (int upper = SPECIES.loopBound(length); i < upper; i += SPECIES.length()) {
+			LongVector total = LongVector.fromArray(SPECIES, totals, i);
+			LongVector oldest = LongVector.fromArray(SPECIES, oldestSizes, i);
+			LongVector.broadcast(SPECIES, threshold).sub(total.sub(oldest.lanewise(VectorOperators.LSHR, 1)))
+					.lanewise(VectorOperators.LSHR, 63).intoArray(lanes, 0);
+			for (int lane = 0; lane < lanes.length; lane++) {
+				indices[found] = i + lane;
+				found += (int) lanes[lane];
+			}
+		}
+		for (; i < length; i++) {
+			indices[found] = i;
+			found += (int) ((threshold - (totals[i] - (oldestSizes[i] >>> 1))) >>> 63);
+		}
+		return found;
+	}
+}